@@ -0,0 +1,124 @@
+/**
+ * Encoding of the MPUT / MGET batch commands, between client and Coordinator
+ * and between Coordinator and Node.
+ *
+ * A batch is one line: the command, the entry count, then the entries.
+ * Keys and values are length-prefixed fields, "<UTF-8 byte length>:<text>",
+ * so unlike the single-key commands they may contain ':'. Numbers and
+ * markers (NULL, FAILURE) are plain tokens. Every token is preceded by ':'.
+ *
+ *   client -> Coordinator  MPUT:<n>(:<key>:<value>)*    MGET:<n>(:<key>)*
+ *   Coordinator -> client  MPUT:<quorum met>/<n>:<S|F per key, in order>
+ *                          VALUES:<n>(:<value>:<version> | :NULL | :FAILURE)*
+ *   Coordinator -> Node    MPUT:<n>(:<key>:<value>:<version>:<expiresAt>)*
+ *                          MGET:<n>(:<key>)*
+ *   Node -> Coordinator    ACK (the whole batch, logged as one group commit)
+ *                          VALUES:<n>(:<value>:<version>:<expiresAt> | :NULL)*
+ */
+public final class BatchCodec {
+    private BatchCodec() {
+    }
+
+    // Appends ":<length>:<text>"
+    public static StringBuilder appendField(StringBuilder sb, String text) {
+        return sb.append(':').append(utf8Length(text)).append(':').append(text);
+    }
+
+    public static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the tokens of a batch line in order. Throws
+     * IllegalArgumentException on malformed input.
+     */
+    public static final class Reader {
+        private final String line;
+        private int pos;
+
+        // Starts after the "<command>" prefix, e.g. new Reader(line, "MPUT".length())
+        public Reader(String line, int start) {
+            this.line = line;
+            this.pos = start;
+        }
+
+        public boolean hasMore() {
+            return pos < line.length();
+        }
+
+        public long number() {
+            separator();
+            int start = pos;
+            while (pos < line.length() && line.charAt(pos) != ':') {
+                pos++;
+            }
+            try {
+                return Long.parseLong(line.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number at " + start);
+            }
+        }
+
+        // Entry count, bounded by what the rest of the line could hold
+        public int count() {
+            long count = number();
+            if (count < 0 || count > line.length() - pos)
+                throw new IllegalArgumentException("Bad entry count " + count);
+            return (int) count;
+        }
+
+        public String field() {
+            long bytes = number();
+            separator();
+            int start = pos;
+            while (bytes > 0 && pos < line.length()) {
+                char c = line.charAt(pos++);
+                if (c < 0x80) {
+                    bytes--;
+                } else if (c < 0x800) {
+                    bytes -= 2;
+                } else if (Character.isHighSurrogate(c) && pos < line.length()
+                        && Character.isLowSurrogate(line.charAt(pos))) {
+                    bytes -= 4;
+                    pos++;
+                } else {
+                    bytes -= 3;
+                }
+            }
+            if (bytes != 0)
+                throw new IllegalArgumentException("Field at " + start + " is shorter than its length");
+            return line.substring(start, pos);
+        }
+
+        // Consumes ":<marker>" if it is the next token
+        public boolean marker(String marker) {
+            int end = pos + 1 + marker.length();
+            if (pos >= line.length() || line.charAt(pos) != ':' || !line.startsWith(marker, pos + 1)
+                    || (end < line.length() && line.charAt(end) != ':'))
+                return false;
+            pos = end;
+            return true;
+        }
+
+        private void separator() {
+            if (pos >= line.length() || line.charAt(pos) != ':')
+                throw new IllegalArgumentException("Expected ':' at " + pos);
+            pos++;
+        }
+    }
+}
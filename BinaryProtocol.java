@@ -0,0 +1,277 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary protocol, served next to the text protocol by the
+ * Coordinator (clients) and the Nodes (the Coordinator, with --binary).
+ *
+ * A binary connection opens with the byte MAGIC, which no text command
+ * starts with, so servers pick the protocol from a connection's first byte
+ * and text clients keep working unchanged. After it come frames,
+ * "[varint body length][opcode][fields]", answered in order. Keys and
+ * values are "[varint byte length][UTF-8 bytes]", copied as is, so they may
+ * contain ':' or newlines; numbers are unsigned LEB128 varints. Nothing is
+ * split, searched for or parsed from digits.
+ *
+ *   client -> Coordinator  GET key                        PUT key value ttlSeconds (0 = none)
+ *   Coordinator -> client  VALUE value version expiresAt  NULL  ACK (write quorum met)
+ *                          FAILURE message (quorum not met)
+ *   Coordinator -> Node    GET key                        PUT key value version expiresAt
+ *                          HEARTBEAT
+ *   Node -> Coordinator    VALUE value version expiresAt  NULL  ACK  ALIVE
+ *   either way             ERROR message
+ */
+public final class BinaryProtocol {
+    public static final int MAGIC = 0xB7;
+    private static final int MAX_FRAME_BYTES = 64 << 20;
+
+    // Requests
+    public static final byte GET = 0x01;
+    public static final byte PUT = 0x02;
+    public static final byte HEARTBEAT = 0x03;
+    // Responses
+    public static final byte ACK = 0x41;
+    public static final byte VALUE = 0x42;
+    public static final byte NULL = 0x43;
+    public static final byte ALIVE = 0x44;
+    public static final byte FAILURE = 0x45;
+    public static final byte ERROR = 0x7F;
+
+    private BinaryProtocol() {
+    }
+
+    // Body builders: start a frame body in `body`, then append fields with
+    // field() and ResponseBuffer.putVarint()
+    public static ResponseBuffer start(ResponseBuffer body, byte opcode) {
+        return body.reset().put((char) opcode);
+    }
+
+    public static ResponseBuffer field(ResponseBuffer body, String text) {
+        return body.putVarint(BatchCodec.utf8Length(text)).put(text);
+    }
+
+    public static ResponseBuffer field(ResponseBuffer body, VersionedValue value) {
+        return body.putVarint(value.length).put(value);
+    }
+
+    // VALUE value version expiresAt
+    public static ResponseBuffer value(ResponseBuffer body, VersionedValue value) {
+        return field(start(body, VALUE), value).putVarint(value.version).putVarint(value.expiresAt);
+    }
+
+    public static ResponseBuffer message(ResponseBuffer body, byte opcode, String message) {
+        return field(start(body, opcode), message);
+    }
+
+    // Writes `body` as one frame; the caller flushes
+    public static void writeFrame(OutputStream out, ResponseBuffer body) throws IOException {
+        writeVarint(out, body.length());
+        body.writeTo(out);
+    }
+
+    // The frame as one array, for transports that queue responses
+    public static byte[] frame(ResponseBuffer body) {
+        int prefix = varintLength(body.length());
+        byte[] frame = new byte[prefix + body.length()];
+        long length = body.length();
+        for (int i = 0; i < prefix; i++, length >>>= 7) {
+            frame[i] = (byte) (i == prefix - 1 ? length : (length & 0x7F) | 0x80);
+        }
+        body.copyTo(frame, prefix);
+        return frame;
+    }
+
+    // Reads one frame body; null if the stream ended between frames
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1)
+            return null;
+        long length = first & 0x7F;
+        for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+            first = in.read();
+            if (first == -1)
+                throw new EOFException("Stream ended inside a frame length");
+            if (shift > 28)
+                throw new IOException("Frame length varint too long");
+            length |= (long) (first & 0x7F) << shift;
+        }
+        if (length == 0 || length > MAX_FRAME_BYTES)
+            throw new IOException("Bad frame length " + length);
+        byte[] body = in.readNBytes((int) length);
+        if (body.length < length)
+            throw new EOFException("Stream ended inside a frame");
+        return body;
+    }
+
+    // Body length declared by the first `count` bytes of a frame, -1 if its
+    // length varint needs more bytes. For transports that buffer input.
+    public static int frameLength(byte[] header, int count) throws IOException {
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 4)
+                throw new IOException("Frame length varint too long");
+            byte b = header[i];
+            length |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (length == 0 || length > MAX_FRAME_BYTES || varintLength(length) != i + 1)
+                    throw new IOException("Bad frame length " + length);
+                return (int) length;
+            }
+        }
+        return -1;
+    }
+
+    public static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static int varintLength(long value) {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the fields of a frame body in order. Throws
+     * IllegalArgumentException on malformed input.
+     */
+    public static final class Reader {
+        private final byte[] body;
+        private final int end; // Bounds every field
+        private int pos;
+
+        public Reader(byte[] body) {
+            this(body, 0, body.length);
+        }
+
+        // A body at body[offset, end)
+        public Reader(byte[] body, int offset, int end) {
+            this.body = body;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        public byte opcode() {
+            if (pos >= end)
+                throw new IllegalArgumentException("Empty frame");
+            return body[pos++];
+        }
+
+        public boolean hasMore() {
+            return pos < end;
+        }
+
+        public long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end)
+                    throw new IllegalArgumentException("Frame ends inside a varint");
+                byte b = body[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        public String string() {
+            int length = length();
+            String text = new String(body, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return text;
+        }
+
+        // A field's raw UTF-8 bytes, e.g. for new VersionedValue(bytes(), ...)
+        public byte[] bytes() {
+            int length = length();
+            byte[] bytes = Arrays.copyOfRange(body, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        private int length() {
+            long length = varint();
+            if (length > end - pos)
+                throw new IllegalArgumentException("Field of " + length + " bytes overruns the frame");
+            return (int) length;
+        }
+    }
+
+    // Quick standalone benchmark: encode + decode cost of the Coordinator ->
+    // Node PUT and the Node -> Coordinator VALUE reply, text vs binary, in ns
+    // and heap bytes allocated per message, e.g. java BinaryProtocol 2000000
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int keys = 1024;
+        String[] names = new String[keys];
+        String[] values = new String[keys];
+        VersionedValue[] stored = new VersionedValue[keys];
+        long version = new HybridLogicalClock().now();
+        for (int i = 0; i < keys; i++) {
+            names[i] = "user" + String.format("%07d", i);
+            // Session-sized, but colon-free so the text form can carry it
+            values[i] = "userId=user" + i + ", loginTime=01.35, status=active, device=mobile, region=eu-west";
+            stored[i] = new VersionedValue(values[i], version + i);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        ResponseBuffer buffer = new ResponseBuffer();
+        long check = 0; // Consumed so the JIT cannot drop the decoding
+        for (String codec : new String[] { "text", "binary" }) {
+            for (int round = 0; round < 3; round++) { // Earlier rounds warm up the JIT
+                long wireBytes = 0;
+                long allocated = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < messages; i++) {
+                    int k = i % keys;
+                    if (codec.equals("text")) {
+                        // As Coordinator.handlePut encodes and Node.processCommand decodes
+                        String put = "PUT:" + names[k] + ":" + values[k] + ":" + stored[k].version;
+                        String[] parts = put.split(":");
+                        VersionedValue decoded = new VersionedValue(parts[2], Long.parseLong(parts[3]));
+                        // As Node.valueResponse encodes and Coordinator.readQuorum decodes
+                        Node.valueResponse(buffer.reset(), names[k], decoded);
+                        String reply = new String(buffer.toByteArray(), 0, buffer.length() - 1, StandardCharsets.UTF_8);
+                        String[] fields = reply.split(":");
+                        check += Long.parseLong(fields[3]) + fields[2].length() + parts[1].length();
+                        wireBytes += put.length() + 1 + buffer.length();
+                    } else {
+                        field(field(start(buffer, PUT), names[k]), values[k]).putVarint(stored[k].version)
+                                .putVarint(0);
+                        Reader put = new Reader(frame(buffer));
+                        put.varint(); // Frame length
+                        put.opcode();
+                        String key = put.string();
+                        VersionedValue decoded = new VersionedValue(put.bytes(), put.varint(), put.varint());
+                        wireBytes += 1 + buffer.length();
+                        byte[] reply = frame(value(buffer, decoded));
+                        Reader value = new Reader(reply);
+                        value.varint();
+                        value.opcode();
+                        byte[] bytes = value.bytes();
+                        check += value.varint() + value.varint() + bytes.length + key.length();
+                        wireBytes += reply.length;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+                System.out.printf("%-6s round %d: %.0f ns, %.0f bytes allocated, %.1f bytes on the wire per PUT + VALUE%n",
+                        codec, round + 1, (double) nanos / messages, (double) allocated / messages,
+                        (double) wireBytes / messages);
+            }
+        }
+        System.out.println("(checksum " + check + ")");
+    }
+}
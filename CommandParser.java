@@ -0,0 +1,237 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser for the ':'-separated text commands, reused for every line a
+ * thread handles. It scans the line's bytes once, recording where
+ * each field starts and ends, and works out the command from the first
+ * field. Fields are then read in place: numbers straight from their digits,
+ * values as byte copies, and keys through a small cache of recently seen
+ * keys, so a request for a hot key allocates nothing. The key cache is shared
+ * by all parsers and has a fixed size, so a parser itself is only a few
+ * offsets and is cheap to have per thread, even one per virtual thread.
+ * Fields split exactly as String.split(":") would, trailing empty fields
+ * dropped. A parser is not thread-safe; the key cache is.
+ */
+public final class CommandParser {
+    // Commands: the first field of a line
+    public static final int UNKNOWN = 0;
+    public static final int PUT = 1;
+    public static final int PUTTTL = 2;
+    public static final int GET = 3;
+    public static final int HEARTBEAT = 4;
+    public static final int SYNC_REQUEST = 5;
+    public static final int SYNC_DATA = 6;
+    public static final int STATS = 7;
+    public static final int COMPACT = 8;
+    public static final int KILL = 9;
+    public static final int REVIVE = 10;
+    public static final int MPUT = 11;
+    public static final int MGET = 12;
+    public static final int VERSIONS = 13;
+
+    private static final byte[][] NAMES = names("", "PUT", "PUTTTL", "GET", "HEARTBEAT", "SYNC_REQUEST",
+            "SYNC_DATA", "STATS", "COMPACT", "KILL", "REVIVE", "MPUT", "MGET", "VERSIONS");
+    private static final int MAX_FIELDS = 8; // Positions kept; later fields are only counted
+    private static final int KEY_CACHE_BITS = 12; // 4096 slots
+
+    private byte[] line;
+    private int start;
+    private int end;
+    private int command;
+    private int fields;
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+
+    // Direct-mapped: a slot holds the last key whose bytes hashed to it. Slots
+    // are read and replaced without locks; a CachedKey is immutable (final
+    // fields), so a racing reader sees a whole entry and at worst misses.
+    private static final CachedKey[] KEY_CACHE = new CachedKey[1 << KEY_CACHE_BITS];
+
+    // Parses line[start, end), without the newline; returns the command
+    public int parse(byte[] line, int start, int end) {
+        this.line = line;
+        this.start = start;
+        this.end = end;
+        int field = 0;
+        int fieldStart = start;
+        fields = 0; // As split(":"): up to the last non-empty field
+        for (int i = start; i <= end; i++) {
+            if (i == end || line[i] == ':') {
+                if (field < MAX_FIELDS) {
+                    fieldStarts[field] = fieldStart;
+                    fieldEnds[field] = i;
+                }
+                if (i > fieldStart)
+                    fields = field + 1;
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        command = commandOf(fields == 0 ? start : fieldStarts[0], fields == 0 ? start : fieldEnds[0]);
+        return command;
+    }
+
+    public int command() {
+        return command;
+    }
+
+    // Number of fields, the command included (String.split(":").length)
+    public int fields() {
+        return fields;
+    }
+
+    public boolean startsWith(byte b) {
+        return end > start && line[start] == b;
+    }
+
+    // Field `i` as a key: the cached String when the same bytes were seen last
+    public String key(int i) {
+        int from = fieldStart(i);
+        int to = fieldEnds[i];
+        int hash = 0;
+        for (int p = from; p < to; p++) {
+            hash = 31 * hash + line[p];
+        }
+        int slot = (hash * 0x9E3779B9) >>> (32 - KEY_CACHE_BITS); // Fibonacci hashing spreads similar keys
+        CachedKey cached = KEY_CACHE[slot];
+        if (cached != null && Arrays.equals(cached.bytes, 0, cached.bytes.length, line, from, to))
+            return cached.key;
+        String key = new String(line, from, to - from, StandardCharsets.UTF_8);
+        KEY_CACHE[slot] = new CachedKey(Arrays.copyOfRange(line, from, to), key);
+        return key;
+    }
+
+    public String string(int i) {
+        int from = fieldStart(i);
+        return new String(line, from, fieldEnds[i] - from, StandardCharsets.UTF_8);
+    }
+
+    // Field `i`'s UTF-8 bytes, e.g. for new VersionedValue(bytes(i), ...)
+    public byte[] bytes(int i) {
+        return Arrays.copyOfRange(line, fieldStart(i), fieldEnds[i]);
+    }
+
+    // Field `i` as a decimal long, read from its digits; throws
+    // NumberFormatException like Long.parseLong
+    public long number(int i) {
+        int from = fieldStart(i);
+        int to = fieldEnds[i];
+        boolean negative = from < to && line[from] == '-';
+        int p = negative ? from + 1 : from;
+        if (p == to)
+            throw new NumberFormatException("Bad number in field " + i);
+        long value = 0; // Accumulated negatively so Long.MIN_VALUE parses
+        for (; p < to; p++) {
+            int digit = line[p] - '0';
+            if (digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10)
+                throw new NumberFormatException("Bad number in field " + i);
+            value *= 10;
+            if (value < Long.MIN_VALUE + digit)
+                throw new NumberFormatException("Bad number in field " + i);
+            value -= digit;
+        }
+        if (!negative && value == Long.MIN_VALUE)
+            throw new NumberFormatException("Bad number in field " + i);
+        return negative ? value : -value;
+    }
+
+    // The whole line, for commands parsed as Strings (batches) and for logs
+    public String text() {
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private int fieldStart(int i) {
+        if (i >= fields || i >= MAX_FIELDS)
+            throw new IllegalArgumentException("No field " + i);
+        return fieldStarts[i];
+    }
+
+    private int commandOf(int from, int to) {
+        for (int c = 1; c < NAMES.length; c++) {
+            byte[] name = NAMES[c];
+            if (Arrays.equals(name, 0, name.length, line, from, to))
+                return c;
+        }
+        return UNKNOWN;
+    }
+
+    private static final class CachedKey {
+        final byte[] bytes; // UTF-8 of `key`
+        final String key;
+
+        CachedKey(byte[] bytes, String key) {
+            this.bytes = bytes;
+            this.key = key;
+        }
+    }
+
+    private static byte[][] names(String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+
+    // Quick standalone benchmark: heap bytes allocated and ns per request to
+    // read and parse node GET and PUT lines, BufferedReader.readLine() +
+    // split(":") against LineReader + CommandParser, measured with the
+    // per-thread allocation counter, e.g. java CommandParser 1000000
+    public static void main(String[] args) throws IOException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int keys = 512; // Hot keys, as in the Zipf benchmark
+        long version = new HybridLogicalClock().now();
+        StringBuilder gets = new StringBuilder();
+        StringBuilder puts = new StringBuilder();
+        for (int i = 0; i < requests; i++) {
+            String key = "user" + String.format("%07d", i % keys);
+            gets.append("GET:").append(key).append('\n');
+            puts.append("PUT:").append(key).append(":status=active,device=mobile,region=eu-west:")
+                    .append(version + i).append('\n');
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        long check = 0; // Consumed so the JIT cannot drop the parsing
+        for (String[] run : new String[][] { { "GET", gets.toString() }, { "PUT", puts.toString() } }) {
+            byte[] input = run[1].getBytes(StandardCharsets.UTF_8);
+            for (String parser : new String[] { "split", "parser" }) {
+                for (int round = 0; round < 3; round++) { // Earlier rounds warm up the JIT
+                    long allocated = threads.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    if (parser.equals("split")) {
+                        // As the nodes parsed requests before (PUT values were encoded by VersionedValue)
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8));
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            String[] parts = line.split(":");
+                            check += parts[1].hashCode();
+                            if (parts.length > 3)
+                                check += parts[2].getBytes(StandardCharsets.UTF_8).length + Long.parseLong(parts[3]);
+                        }
+                    } else {
+                        LineReader in = new LineReader(new ByteArrayInputStream(input));
+                        CommandParser commands = new CommandParser();
+                        while (in.next()) {
+                            commands.parse(in.buffer(), in.start(), in.end());
+                            check += commands.key(1).hashCode();
+                            if (commands.command() == PUT)
+                                check += commands.bytes(2).length + commands.number(3);
+                        }
+                    }
+                    long nanos = System.nanoTime() - start;
+                    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+                    System.out.printf("%s %-6s round %d: %.1f bytes allocated, %.0f ns per request%n", run[0], parser,
+                            round + 1, (double) allocated / requests, (double) nanos / requests);
+                }
+            }
+        }
+        System.out.println("(checksum " + check + ")");
+    }
+}
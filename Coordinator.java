@@ -19,109 +19,303 @@
  *    - Minimum Quorum: 2 (if 3 nodes alive), adjusts to 2 if 2 alive.
  *    - Write Success: Requires Q acknowledgments.
  *    - Read Success: Requires Q responses, resolving conflicts via Versioning.
+ *    - Requests fan out to all alive replicas in parallel; the client is answered
+ *      as soon as Q replicas respond and stragglers finish in the background.
  * 
  * 4. FAILURE DETECTION
  *    - Heartbeat Mechanism: Coordinator pings nodes every 2 seconds.
  *    - Timeout: Nodes silent for >5 seconds are marked FAILED.
  *    - Excluded from Quorum calculations immediately upon detection.
  * 
+ *    - Coordinator keeps a pool of persistent connections per node; a node
+ *      connection serves any number of sequential request/response lines.
+ *    - With --multiplex, requests carry an ID ("#<id>:<command>") and many are
+ *      outstanding at once on each of a few connections per node; the node
+ *      answers them as they complete, in any order.
+ *    - With --binary, GETs, PUTs and sync pushes to the nodes use the binary
+ *      protocol (BinaryProtocol) on a pool of their own; other commands stay text.
+ * 
+ *    - Client connections are sessions: many pipelined commands per connection,
+ *      responses returned in request order.
+ *    - Clients speak the text protocol or, opening with a magic byte, the
+ *      binary one (GET and PUT with length-prefixed keys and values).
+ * 
  * 5. RECOVERY PROCESS
  *    - Automatic Re-synchronization on Heartbeat recovery.
  *    - Coordinator pushes missing keys (latest versions) to the recovered node.
+ *    - Only keys the recovered node is behind on are pushed: it and the other
+ *      alive nodes stream the version of every key they hold (VERSIONS), and
+ *      the two lists are compared.
+ *    - Coordinator restart: no per-key state is kept here, but at startup the
+ *      clock moves past the highest version on the nodes (it may have stepped
+ *      back across the restart); PUTs wait until that is done.
+ * 
+ *    - Concurrent GETs of the same key share one quorum read (single flight);
+ *      a write ends the sharing, so a GET issued after a PUT completes never
+ *      joins a read that started before it.
+ *    - Optional read cache (--read-cache-bytes): the last consolidated value of
+ *      hot keys, answered without a replica round-trip. A read's value is only
+ *      cached if no write of the key completed while it ran, and each write
+ *      refreshes or drops the entry.
+ * 
+ * 6. VERSIONING
+ *    - Versions are hybrid logical clock timestamps (HybridLogicalClock):
+ *      wall-clock ms plus a logical counter in one long. Writes are stamped
+ *      with no per-key state, so coordinators could run side by side.
+ *    - Conflicts still resolve last-writer-wins: the highest version wins on
+ *      the nodes and in consolidated reads.
+ * 
+ * 7. EXPIRY (TTL)
+ *    - PUTTTL:key:value:seconds is replicated like a PUT, with an absolute
+ *      expiry time (epoch ms) fixed once here so every replica agrees on it.
+ *    - Nodes expire keys on their own, keeping an expired key's version as a
+ *      tombstone for a grace period; a tombstone read back outvotes older
+ *      replicas' versions, and clients get NULL.
  * ==============================================================================================
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class Coordinator {
+    // Result of a read that did not reach its quorum (null is a key that is absent)
+    private static final VersionedValue READ_FAILED = new VersionedValue(new byte[0], -1);
+    // Per thread; a parser is a few offsets, the key cache behind it is shared
+    private static final ThreadLocal<CommandParser> PARSERS = ThreadLocal.withInitial(CommandParser::new);
+
     private final int port;
+    private final Options options;
     private final List<NodeInfo> nodes = new ArrayList<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
-    private final Map<String, Integer> keyVersions = new HashMap<>(); // Track versions for keys
+    private final ExecutorService executor;
+    private final HybridLogicalClock clock = new HybridLogicalClock(); // Stamps the version of every write
+    private final CountDownLatch versionsLoaded = new CountDownLatch(1); // Open once the clock passed the nodes' versions
+    private final EvictingValueStore readCache; // Null unless --read-cache-bytes is set
+    // Quorum read in progress per key, joined by concurrent GETs of the key. A
+    // PUT removes it, which also keeps the read's result out of the cache.
+    private final ConcurrentHashMap<String, CompletableFuture<VersionedValue>> inFlightReads = new ConcurrentHashMap<>();
     private HeartbeatManager heartbeatManager;
 
     // UPGRADE 2: Metrics
     private final AtomicInteger totalWrites = new AtomicInteger(0);
     private final AtomicInteger totalReads = new AtomicInteger(0);
     private final AtomicInteger failedWrites = new AtomicInteger(0);
+    private final AtomicInteger quorumReads = new AtomicInteger(0);
+    private final AtomicInteger coalescedReads = new AtomicInteger(0);
+    private final AtomicInteger readCacheHits = new AtomicInteger(0);
+    private final AtomicInteger readCacheMisses = new AtomicInteger(0);
     public final AtomicInteger nodeFailuresDetected = new AtomicInteger(0); // Public for HeartbeatManager to increment
 
     // Hardcoded node configuration for academic simplicity
     public Coordinator(int port) {
+        this(port, new Options());
+    }
+
+    public Coordinator(int port, Options options) {
         this.port = port;
+        this.options = options;
+        this.executor = options.newRequestExecutor();
+        this.readCache = options.readCacheBytes > 0
+                ? new EvictingValueStore(new MemoryStorageEngine.HeapStore(), options.readCacheBytes)
+                : null;
         // As per requirement: 3 nodes
         nodes.add(new NodeInfo("NodeA", "127.0.0.1", 8081));
         nodes.add(new NodeInfo("NodeB", "127.0.0.1", 8082));
         nodes.add(new NodeInfo("NodeC", "127.0.0.1", 8083));
+        if (options.multiplex) {
+            for (NodeInfo node : nodes) {
+                node.multiplexed = new MultiplexedNodeClient(node.ip, node.port, options.nodeConnections);
+            }
+        }
+        if (options.binary) {
+            for (NodeInfo node : nodes) {
+                node.binaryConnections = new NodeConnectionPool.Binary(node.ip, node.port);
+            }
+        }
 
-        System.out.println("Coordinator started on port " + port);
-        System.out.println("Registered 3 nodes: NodeA(8081), NodeB(8082), NodeC(8083)");
+        Log.info("Coordinator started on port " + port);
+        Log.info("Registered 3 nodes: NodeA(8081), NodeB(8082), NodeC(8083)");
 
         // Start Heartbeat Manager
         heartbeatManager = new HeartbeatManager(this, nodes);
         heartbeatManager.start();
 
+        // Reads are served right away; writes wait for the clock to catch up
+        executor.submit(this::loadVersions);
         startServer();
     }
 
     private void startServer() {
+        if (options.nio) {
+            try {
+                new NioServer("Coordinator", port, options.eventLoops, executor,
+                        line -> (handleClientLine(PARSERS.get(), line, 0, line.length) + "\n")
+                                .getBytes(StandardCharsets.UTF_8),
+                        frame -> BinaryProtocol.frame(handleClientFrame(frame, new ResponseBuffer())), () -> true)
+                        .start();
+            } catch (IOException e) {
+                Log.error("Coordinator Server Error: " + e.getMessage());
+            }
+            return;
+        }
+
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 executor.submit(() -> handleClientRequest(clientSocket));
             }
         } catch (IOException e) {
-            System.err.println("Coordinator Server Error: " + e.getMessage());
+            Log.error("Coordinator Server Error: " + e.getMessage());
         }
     }
 
+    // A client connection is a session: any number of newline-delimited
+    // commands, answered in order. Clients may pipeline commands without
+    // waiting for each reply; responses are flushed once per burst.
     private void handleClientRequest(Socket socket) {
         try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            String inputLine = in.readLine();
-            if (inputLine == null)
-                return;
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            socket.setTcpNoDelay(true); // Large replies (batches) end in a partial segment; don't hold it back
+            // Binary clients open with BinaryProtocol.MAGIC; anything else is text
+            in.mark(1);
+            if (in.read() == BinaryProtocol.MAGIC) {
+                serveBinary(in, out);
+            } else {
+                in.reset();
+                serveText(new LineReader(in), new PrintWriter(out, false));
+            }
+        } catch (IOException e) {
+            Log.error("Client Handling Error: " + e.getMessage());
+        }
+    }
 
-            System.out.println("[Coordinator] Received client request: " + inputLine);
-            String response = processClientCommand(inputLine);
-            out.println(response);
+    private void serveText(LineReader in, PrintWriter out) throws IOException {
+        CommandParser parser = PARSERS.get(); // Parses each line in place, as read
+        while (in.next()) {
+            out.println(handleClientLine(parser, in.buffer(), in.start(), in.end()));
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
 
-        } catch (IOException e) {
-            System.err.println("Client Handling Error: " + e.getMessage());
+    private void serveBinary(InputStream in, OutputStream out) throws IOException {
+        ResponseBuffer response = new ResponseBuffer();
+        byte[] request;
+        while ((request = BinaryProtocol.readFrame(in)) != null) {
+            BinaryProtocol.writeFrame(out, handleClientFrame(request, response));
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
+    // Binary GET / PUT (see BinaryProtocol); encodes the response frame body into `response`
+    private ResponseBuffer handleClientFrame(byte[] request, ResponseBuffer response) {
+        try {
+            BinaryProtocol.Reader reader = new BinaryProtocol.Reader(request);
+            switch (reader.opcode()) {
+                case BinaryProtocol.GET: {
+                    String key = reader.string();
+                    if (Log.isDebugEnabled())
+                        Log.debug("[Coordinator] Received binary client request: GET " + key);
+                    VersionedValue value = get(key);
+                    if (value == READ_FAILED)
+                        return BinaryProtocol.message(response, BinaryProtocol.FAILURE, "ReadQuorumNotMet");
+                    return value == null ? BinaryProtocol.start(response, BinaryProtocol.NULL)
+                            : BinaryProtocol.value(response, value);
+                }
+                case BinaryProtocol.PUT: {
+                    // PUT key value ttlSeconds (0 = no expiry)
+                    String key = reader.string();
+                    String value = reader.string();
+                    long seconds = reader.varint();
+                    if (Log.isDebugEnabled())
+                        Log.debug("[Coordinator] Received binary client request: PUT " + key);
+                    if (!put(key, value, seconds == 0 ? 0 : System.currentTimeMillis() + seconds * 1000))
+                        return BinaryProtocol.message(response, BinaryProtocol.FAILURE, "WriteQuorumNotMet");
+                    return BinaryProtocol.start(response, BinaryProtocol.ACK);
+                }
+                default:
+                    return BinaryProtocol.message(response, BinaryProtocol.ERROR, "UnknownCommand");
+            }
+        } catch (IllegalArgumentException e) {
+            return BinaryProtocol.message(response, BinaryProtocol.ERROR, "InvalidFrame");
         }
     }
 
-    private String processClientCommand(String command) {
-        String[] parts = command.split(":");
-        String type = parts[0];
+    // line[start, end) is one client line, without its newline
+    private String handleClientLine(CommandParser parser, byte[] line, int start, int end) {
+        parser.parse(line, start, end);
+        if (Log.isDebugEnabled())
+            Log.debug("[Coordinator] Received client request: " + parser.text());
+        return processClientCommand(parser);
+    }
 
-        switch (type) {
-            case "PUT":
+    private String processClientCommand(CommandParser command) {
+        int parts = command.fields();
+
+        switch (command.command()) {
+            // Batches carry length-prefixed fields (see BatchCodec), not ':'-split ones
+            case CommandParser.MPUT:
+                return handleMultiPut(command.text());
+            case CommandParser.MGET:
+                return handleMultiGet(command.text());
+            case CommandParser.PUT:
                 // PUT:key:value
-                if (parts.length < 3)
+                if (parts < 3)
                     return "ERROR:InvalidPUTFormat";
-                String key = parts[1];
-                String value = parts[2];
-                return handlePut(key, value);
-            case "GET":
+                return handlePut(command.key(1), command.string(2), 0);
+            case CommandParser.PUTTTL:
+                // PUTTTL:key:value:seconds
+                if (parts < 4)
+                    return "ERROR:InvalidPUTTTLFormat";
+                long seconds;
+                try {
+                    seconds = command.number(3);
+                } catch (NumberFormatException e) {
+                    return "ERROR:InvalidTTL";
+                }
+                if (seconds <= 0)
+                    return "ERROR:InvalidTTL";
+                return handlePut(command.key(1), command.string(2), System.currentTimeMillis() + seconds * 1000);
+            case CommandParser.GET:
                 // GET:key
-                if (parts.length < 2)
+                if (parts < 2)
                     return "ERROR:InvalidGETFormat";
-                return handleGet(parts[1]);
-            case "STATS":
+                return handleGet(command.key(1));
+            case CommandParser.STATS:
                 // UPGRADE 2: Metrics Dashboard
                 return getSystemMetrics();
             default:
@@ -135,106 +329,372 @@ public class Coordinator {
         return (aliveNodeCount / 2) + 1;
     }
 
-    private int countAliveNodes() {
-        int count = 0;
+    private List<NodeInfo> aliveNodes() {
+        List<NodeInfo> alive = new ArrayList<>();
         for (NodeInfo node : nodes) {
             if (node.isAlive)
-                count++;
+                alive.add(node);
         }
-        return count;
+        return alive;
     }
 
-    // UPGRADE 1 & 2: Write Logic (Dynamic Quorum + Metrics)
-    private String handlePut(String key, String value) {
-        totalWrites.incrementAndGet();
+    // Sends the command to all targets at once and returns as soon as `quorum`
+    // accepted responses have arrived (or every target has answered). Slower
+    // replicas keep running on the executor and their replies are discarded.
+    private List<String> sendToQuorum(List<NodeInfo> targets, String command, int quorum,
+            Predicate<String> accepted) {
+        return sendToQuorum(targets, node -> sendToNode(node, command), quorum, accepted);
+    }
 
-        // Increment version
-        int newVersion = keyVersions.getOrDefault(key, 0) + 1;
-        keyVersions.put(key, newVersion);
+    // The same for any request; `request` returns null when the node is unreachable
+    private <T> List<T> sendToQuorum(List<NodeInfo> targets, Function<NodeInfo, T> request, int quorum,
+            Predicate<T> accepted) {
+        BlockingQueue<Optional<T>> responses = new LinkedBlockingQueue<>();
+        for (NodeInfo node : targets) {
+            executor.submit(() -> {
+                T response = null; // Unreachable, never accepted
+                try {
+                    response = request.apply(node);
+                } catch (RuntimeException e) {
+                    // Still answer, or the take() below would wait for this node forever
+                    Log.error("[Coordinator] Request to " + node.id + " failed: " + e);
+                } finally {
+                    responses.add(Optional.ofNullable(response));
+                }
+            });
+        }
 
-        String commandForKey = "PUT:" + key + ":" + value + ":" + newVersion;
-        int acks = 0;
-        int activeNodes = 0;
+        List<T> acceptedResponses = new ArrayList<>();
+        try {
+            for (int received = 0; received < targets.size() && acceptedResponses.size() < quorum; received++) {
+                Optional<T> response = responses.take();
+                if (response.isPresent() && accepted.test(response.get())) {
+                    acceptedResponses.add(response.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return acceptedResponses;
+    }
 
-        // Broadcast to all ALIVE nodes
-        for (NodeInfo node : nodes) {
-            if (!node.isAlive)
-                continue;
+    private String handlePut(String key, String value, long expiresAt) {
+        return put(key, value, expiresAt) ? "SUCCESS:WriteQuorumMet" : "FAILURE:WriteQuorumNotMet";
+    }
 
-            activeNodes++;
-            String response = sendToNode(node, commandForKey);
-            if (response != null && response.equals("ACK")) {
-                acks++;
-            }
+    // UPGRADE 1 & 2: Write Logic (Dynamic Quorum + Metrics)
+    // expiresAt: epoch ms after which the key is gone, or 0 to keep it.
+    // Returns whether the write quorum was met.
+    private boolean put(String key, String value, long expiresAt) {
+        totalWrites.incrementAndGet();
+        try {
+            versionsLoaded.await(); // A version stamped before this could be older than the nodes' data
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedWrites.incrementAndGet();
+            return false;
         }
 
+        // Stamp the version; no per-key state
+        VersionedValue stamped = new VersionedValue(value, clock.now(), expiresAt);
+
+        // Broadcast to all ALIVE nodes in parallel
+        List<NodeInfo> targets = aliveNodes();
+        int activeNodes = targets.size();
         int quorum = getDynamicQuorum(activeNodes);
-        System.out.println("[Coordinator] Alive Nodes: " + activeNodes);
-        System.out.println("[Coordinator] Dynamic Write Quorum: " + quorum);
+        int acks = sendToQuorum(targets, node -> writeToNode(node, key, stamped), quorum, Boolean.TRUE::equals)
+                .size();
+        // GETs from now on must not join a read that may predate this write
+        inFlightReads.remove(key);
+
+        if (Log.isDebugEnabled()) {
+            Log.debug("[Coordinator] Alive Nodes: " + activeNodes);
+            Log.debug("[Coordinator] Dynamic Write Quorum: " + quorum);
+        }
 
         // Check Quorum
         if (acks >= quorum) {
-            System.out.println("[Coordinator] Write Quorum Achieved (" + acks + "/" + activeNodes + ") for " + key);
-            return "SUCCESS:WriteQuorumMet";
+            if (Log.isDebugEnabled())
+                Log.debug("[Coordinator] Write Quorum Achieved (" + acks + "/" + activeNodes + ") for " + key);
+            if (readCache != null)
+                readCache.putIfNewer(key, stamped);
+            return true;
         } else {
+            // Some replicas may hold the new version; reads must go to a quorum again
+            if (readCache != null)
+                readCache.remove(key);
             failedWrites.incrementAndGet();
-            System.out.println(
+            Log.warn(
                     "[Coordinator] Write FAILED - Quorum Not Met (" + acks + "/" + activeNodes + ") for " + key);
+            return false;
+        }
+    }
+
+    // MPUT:<n>(:<key>:<value>)*: the whole batch travels to each replica as one
+    // message and is logged there as one group commit. Each key gets its own
+    // version; the reply lists per key whether the write quorum was met.
+    private String handleMultiPut(String command) {
+        List<String> keys = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        try {
+            BatchCodec.Reader reader = new BatchCodec.Reader(command, "MPUT".length());
+            int count = reader.count();
+            for (int i = 0; i < count; i++) {
+                keys.add(reader.field());
+                values.add(reader.field());
+            }
+            if (reader.hasMore())
+                throw new IllegalArgumentException("Trailing data");
+        } catch (IllegalArgumentException e) {
+            return "ERROR:InvalidMPUTFormat";
+        }
+        totalWrites.addAndGet(keys.size());
+        try {
+            versionsLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedWrites.addAndGet(keys.size());
             return "FAILURE:WriteQuorumNotMet";
         }
+
+        long[] versions = new long[keys.size()];
+        StringBuilder batch = new StringBuilder(command.length() + keys.size() * 24) // Room for the versions
+                .append("MPUT:").append(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            versions[i] = clock.now();
+            BatchCodec.appendField(BatchCodec.appendField(batch, keys.get(i)), values.get(i))
+                    .append(':').append(versions[i]).append(":0");
+        }
+
+        List<NodeInfo> targets = aliveNodes();
+        int quorum = getDynamicQuorum(targets.size());
+        int acks = sendToQuorum(targets, batch.toString(), quorum, "ACK"::equals).size();
+        // A replica acknowledges the batch as a whole, so each key met the quorum or none did
+        boolean met = acks >= quorum;
+        StringBuilder statuses = new StringBuilder(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            inFlightReads.remove(key);
+            if (readCache != null) {
+                if (met)
+                    readCache.putIfNewer(key, new VersionedValue(values.get(i), versions[i]));
+                else
+                    readCache.remove(key);
+            }
+            statuses.append(met ? 'S' : 'F');
+        }
+        if (!met)
+            failedWrites.addAndGet(keys.size());
+        if (Log.isDebugEnabled() || !met)
+            Log.log(met ? Log.Level.DEBUG : Log.Level.WARN, "[Coordinator] MPUT of " + keys.size()
+                    + " keys: write quorum " + (met ? "met" : "NOT met") + " (" + acks + "/" + targets.size() + ")");
+        return "MPUT:" + (met ? keys.size() : 0) + "/" + keys.size() + ":" + statuses;
     }
 
-    // UPGRADE 1 & 2: Read Logic (Dynamic Quorum + Metrics)
-    private String handleGet(String key) {
-        totalReads.incrementAndGet();
+    // MGET:<n>(:<key>)*: one batched read per replica; each key resolves to its
+    // latest version among the quorum's answers, as for GET. The client's line
+    // is already in the node format and is forwarded as is.
+    private String handleMultiGet(String command) {
+        int count;
+        try {
+            BatchCodec.Reader reader = new BatchCodec.Reader(command, "MGET".length());
+            count = reader.count();
+            for (int i = 0; i < count; i++) {
+                reader.field();
+            }
+            if (reader.hasMore())
+                throw new IllegalArgumentException("Trailing data");
+        } catch (IllegalArgumentException e) {
+            return "ERROR:InvalidMGETFormat";
+        }
+        totalReads.addAndGet(count);
+        quorumReads.addAndGet(count);
+
+        List<NodeInfo> targets = aliveNodes();
+        int quorum = getDynamicQuorum(targets.size());
+        List<String> responses = sendToQuorum(targets, command, quorum, r -> r.startsWith("VALUES:"));
+
+        // Latest answer per key so far, as in latest(): value, version, expiry
+        String[] values = new String[count];
+        long[] versions = new long[count];
+        long[] expiries = new long[count];
+        int replicas = 0;
+        for (String response : responses) {
+            try {
+                BatchCodec.Reader reader = new BatchCodec.Reader(response, "VALUES".length());
+                if (reader.count() != count)
+                    throw new IllegalArgumentException("Wrong entry count");
+                String[] rowValues = new String[count];
+                long[] rowVersions = new long[count];
+                long[] rowExpiries = new long[count];
+                for (int i = 0; i < count; i++) {
+                    if (reader.marker("NULL"))
+                        continue;
+                    rowValues[i] = reader.field();
+                    rowVersions[i] = reader.number();
+                    rowExpiries[i] = reader.number();
+                }
+                // Merged only once the whole row parsed
+                for (int i = 0; i < count; i++) {
+                    if (rowValues[i] != null && (values[i] == null || rowVersions[i] > versions[i])) {
+                        values[i] = rowValues[i];
+                        versions[i] = rowVersions[i];
+                        expiries[i] = rowExpiries[i];
+                    }
+                }
+                replicas++;
+            } catch (IllegalArgumentException e) {
+                Log.error("Error parsing batch read response: " + e.getMessage());
+            }
+        }
 
-        String command = "GET:" + key;
-        List<VersionedValue> readings = new ArrayList<>();
-        int activeNodes = 0;
+        StringBuilder reply = new StringBuilder(replicas < quorum ? 16 : responses.get(0).length())
+                .append("VALUES:").append(count);
+        long now = System.currentTimeMillis();
+        long newest = 0;
+        for (int i = 0; i < count; i++) {
+            if (replicas < quorum) {
+                reply.append(":FAILURE");
+            } else if (values[i] == null || (expiries[i] != 0 && expiries[i] <= now)) {
+                reply.append(":NULL");
+            } else {
+                newest = Math.max(newest, versions[i]);
+                BatchCodec.appendField(reply, values[i]).append(':').append(versions[i]);
+            }
+        }
+        clock.observe(newest);
+        if (Log.isDebugEnabled())
+            Log.debug("[Coordinator] MGET of " + count + " keys from " + replicas + "/" + targets.size()
+                    + " replicas (quorum " + quorum + ")");
+        return reply.toString();
+    }
 
-        for (NodeInfo node : nodes) {
-            if (!node.isAlive)
-                continue;
+    private String handleGet(String key) {
+        VersionedValue value = get(key);
+        if (value == READ_FAILED)
+            return "FAILURE:ReadQuorumNotMet";
+        return value == null ? "NULL" : "VALUE:" + key + ":" + value.value() + ":" + value.version;
+    }
 
-            activeNodes++;
-            String response = sendToNode(node, command);
-            // Expected response: VALUE:key:value:version OR NULL
-            if (response != null && response.startsWith("VALUE:")) {
+    // UPGRADE 1 & 2: Read Logic (Dynamic Quorum + Metrics)
+    // The latest live value, null if there is none, or READ_FAILED
+    private VersionedValue get(String key) {
+        if (readCache != null) {
+            VersionedValue cached = readCache.get(key);
+            if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+                readCacheHits.incrementAndGet();
+                totalReads.incrementAndGet();
+                return cached;
+            }
+            readCacheMisses.incrementAndGet();
+        }
+        CompletableFuture<VersionedValue> read = new CompletableFuture<>();
+        if (!options.coalesceReads) {
+            if (readCache == null)
+                return readConsolidated(key, null);
+            inFlightReads.put(key, read); // Not shared; only lets a PUT keep the result out of the cache
+        } else {
+            // Single flight: concurrent GETs of the key all take the result of one quorum read
+            CompletableFuture<VersionedValue> inFlight = inFlightReads.putIfAbsent(key, read);
+            if (inFlight != null) {
+                coalescedReads.incrementAndGet();
+                totalReads.incrementAndGet();
                 try {
-                    String[] parts = response.split(":");
-                    // parts[0]=VALUE, parts[1]=key, parts[2]=value, parts[3]=version
-                    String val = parts[2];
-                    int ver = Integer.parseInt(parts[3]);
-                    readings.add(new VersionedValue(val, ver));
-                } catch (Exception e) {
-                    System.err.println("Error parsing response from " + node.id + ": " + response);
+                    return inFlight.join();
+                } catch (CompletionException e) {
+                    return READ_FAILED; // The shared read threw
                 }
             }
         }
+        try {
+            VersionedValue result = readConsolidated(key, read);
+            read.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            // A failed read, for this GET and every one that joined it; an
+            // exception would end their client sessions without a reply
+            Log.error("[Coordinator] Read of " + key + " failed: " + e);
+            read.completeExceptionally(e);
+            return READ_FAILED;
+        } finally {
+            inFlightReads.remove(key, read);
+        }
+    }
+
+    // `read`: this GET's entry in inFlightReads, or null to skip the cache
+    private VersionedValue readConsolidated(String key, CompletableFuture<VersionedValue> read) {
+        List<VersionedValue> readings = readQuorum(key);
+        if (readings == null) {
+            return READ_FAILED;
+        }
+
+        VersionedValue best = latest(readings);
+        if (best != null) {
+            cacheRead(key, best, read);
+            if (Log.isDebugEnabled())
+                Log.debug("[Coordinator] Consolidated Read: " + best.value() + " (v" + best.version + ")");
+        }
+        return best;
+    }
+
+    // Reads `key` from a quorum: one entry per replica that answered (a
+    // tombstone where it has expired), null where the replica does not have
+    // the key. Returns null if the quorum was not met.
+    private List<VersionedValue> readQuorum(String key) {
+        totalReads.incrementAndGet();
+        quorumReads.incrementAndGet();
+
+        List<VersionedValue> readings = new ArrayList<>();
 
+        List<NodeInfo> targets = aliveNodes();
+        int activeNodes = targets.size();
         int quorum = getDynamicQuorum(activeNodes);
-        System.out.println("[Coordinator] Alive Nodes: " + activeNodes);
-        System.out.println("[Coordinator] Dynamic Read Quorum: " + quorum);
-        System.out.println("[Coordinator] Read responses received from " + readings.size() + " nodes");
+        List<Optional<VersionedValue>> responses = sendToQuorum(targets, node -> readFromNode(node, key), quorum,
+                response -> true);
+        for (Optional<VersionedValue> response : responses) {
+            if (response.isEmpty()) {
+                readings.add(null); // Absent on this replica
+                continue;
+            }
+            clock.observe(response.get().version); // HLC receive: later writes are stamped above what was read
+            readings.add(response.get());
+        }
 
-        if (readings.size() < quorum) {
-            return "FAILURE:ReadQuorumNotMet";
+        if (Log.isDebugEnabled()) {
+            Log.debug("[Coordinator] Alive Nodes: " + activeNodes);
+            Log.debug("[Coordinator] Dynamic Read Quorum: " + quorum);
+            Log.debug("[Coordinator] Read responses received from " + readings.size() + " nodes");
         }
 
-        // Compare versions (Latest wins)
+        return readings.size() < quorum ? null : readings;
+    }
+
+    // Caches a read's result only if no PUT of the key completed while it ran
+    // (the PUT removed `read` from inFlightReads): the result may predate that
+    // write, and would be served stale. A PUT still in progress either
+    // replaces the entry with its newer version or drops it when it fails.
+    private void cacheRead(String key, VersionedValue value, CompletableFuture<VersionedValue> read) {
+        if (readCache != null && read != null && inFlightReads.get(key) == read)
+            readCache.putIfNewer(key, value);
+    }
+
+    // Compare versions (Latest wins); null if the latest has expired. A replica
+    // reports an expired key as its tombstone, so the expiry outvotes an older
+    // version another replica still holds.
+    private static VersionedValue latest(List<VersionedValue> readings) {
+        VersionedValue best = newest(readings);
+        return best == null || best.isExpired(System.currentTimeMillis()) ? null : best;
+    }
+
+    // The highest version read, expired (a tombstone) or not
+    private static VersionedValue newest(List<VersionedValue> readings) {
         VersionedValue best = null;
         for (VersionedValue v : readings) {
-            if (best == null || v.version > best.version) {
+            if (v != null && (best == null || v.version > best.version)) {
                 best = v;
             }
         }
-
-        if (best != null) {
-            System.out.println("[Coordinator] Consolidated Read: " + best.value + " (v" + best.version + ")");
-            return "VALUE:" + key + ":" + best.value + ":" + best.version;
-        } else {
-            return "NULL";
-        }
+        return best;
     }
 
     // UPGRADE 2: Metrics Dashboard
@@ -243,40 +703,227 @@ public class Coordinator {
         sb.append("----- SYSTEM METRICS -----\n");
         sb.append("Total Writes: ").append(totalWrites.get()).append("\n");
         sb.append("Total Reads: ").append(totalReads.get()).append("\n");
+        sb.append("Quorum Reads: ").append(quorumReads.get()).append("\n");
+        sb.append("Coalesced Reads: ").append(coalescedReads.get()).append("\n");
         sb.append("Failed Writes: ").append(failedWrites.get()).append("\n");
-        sb.append("Node Failures Detected: ").append(nodeFailuresDetected.get());
+        sb.append("Node Failures Detected: ").append(nodeFailuresDetected.get()).append("\n");
+        Runtime runtime = Runtime.getRuntime();
+        sb.append("Live Threads: ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append("\n");
+        sb.append("Heap Used (MB): ").append((runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+        if (readCache != null) {
+            sb.append("\nRead Cache Hits: ").append(readCacheHits.get());
+            sb.append("\nRead Cache Misses: ").append(readCacheMisses.get());
+            sb.append("\nRead Cache Keys: ").append(readCache.size());
+        }
+        // Storage stats of every alive node (resident bytes, evictions, hit ratio in cache mode)
+        for (NodeInfo node : aliveNodes()) {
+            String response = sendToNode(node, "STATS");
+            if (response != null && response.startsWith("STATS:"))
+                sb.append("\n").append(node.id).append(": ").append(response.substring("STATS:".length()));
+        }
         return sb.toString();
     }
 
+    // Moves the clock past every version on the reachable nodes, one bulk
+    // VERSIONS stream each in parallel (no per-key reads), then opens the gate
+    // for writes. Nodes that are down now are read when they recover.
+    private void loadVersions() {
+        long start = System.currentTimeMillis();
+        try {
+            List<Future<Integer>> dumps = new ArrayList<>();
+            for (NodeInfo node : nodes) {
+                dumps.add(executor.submit(() -> fetchVersions(node, (key, version) -> clock.observe(version))));
+            }
+            int reported = 0;
+            int keys = 0;
+            for (Future<Integer> dump : dumps) {
+                try {
+                    int count = dump.get();
+                    if (count >= 0) {
+                        reported++;
+                        keys = Math.max(keys, count);
+                    }
+                } catch (Exception e) {
+                    Log.info("[Coordinator] Version load failed: " + e.getMessage());
+                }
+            }
+            long latest = clock.now();
+            Log.info("[Coordinator] Clock past versions of " + keys + " keys from " + reported + "/"
+                    + nodes.size() + " nodes in " + (System.currentTimeMillis() - start) + " ms (now "
+                    + HybridLogicalClock.physicalTime(latest) + "." + HybridLogicalClock.logical(latest) + ")");
+        } finally {
+            versionsLoaded.countDown();
+        }
+    }
+
+    // Streams the node's VERSIONS list into `action`; returns the number of
+    // keys it reported, or -1 if it could not be reached
+    private int fetchVersions(NodeInfo node, VersionConsumer action) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(node.ip, node.port), 1000);
+            socket.setSoTimeout(30_000);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+            out.println("VERSIONS");
+            int count = 0;
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("END")) {
+                int colon = line.lastIndexOf(':'); // Keys may contain ':'
+                action.accept(line.substring(0, colon), Long.parseLong(line.substring(colon + 1)));
+                count++;
+            }
+            if (line == null)
+                throw new IOException("connection closed before END");
+            return count;
+        } catch (IOException | RuntimeException e) {
+            Log.info("[Coordinator] Cannot read versions from " + node.id + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private interface VersionConsumer {
+        void accept(String key, long version);
+    }
+
     // PHASE 8: Automatic Re-Synchronization
     public void synchronizeNode(NodeInfo recoveredNode) {
-        System.out.println("[Coordinator] Synchronizing data to recovered node: " + recoveredNode.id + "...");
+        Log.info("[Coordinator] Synchronizing data to recovered node: " + recoveredNode.id + "...");
 
         executor.submit(() -> {
-            int syncedCount = 0;
-            for (String key : keyVersions.keySet()) {
-                // Get latest value from QUORUM
-                String getResponse = handleGet(key);
-                if (getResponse != null && getResponse.startsWith("VALUE:")) {
-                    String[] parts = getResponse.split(":");
-                    String val = parts[2];
-                    String ver = parts[3];
+            // Compare version lists: only keys another node holds a newer version of need a push
+            Map<String, Long> held = new HashMap<>();
+            if (fetchVersions(recoveredNode, (key, version) -> {
+                held.put(key, version);
+                clock.observe(version); // It may have been down when the clock was loaded
+            }) < 0)
+                return;
+            Set<String> behind = new HashSet<>();
+            for (NodeInfo node : aliveNodes()) {
+                if (node != recoveredNode) {
+                    fetchVersions(node, (key, version) -> {
+                        Long mine = held.get(key);
+                        if (mine == null || mine < version)
+                            behind.add(key);
+                    });
+                }
+            }
+            held.clear();
 
+            int syncedCount = 0;
+            for (String key : behind) {
+                // Get latest value from QUORUM; a tombstone is pushed too, so
+                // the expiry also outvotes the recovered node's older version
+                List<VersionedValue> readings = readQuorum(key);
+                VersionedValue latest = readings == null ? null : newest(readings);
+                if (latest != null) {
+                    if (recoveredNode.binaryConnections != null) {
+                        if (Boolean.TRUE.equals(writeToNode(recoveredNode, key, latest)))
+                            syncedCount++;
+                        continue;
+                    }
                     // Send SYNC_DATA to recovered node
-                    // SYNC_DATA:key:value:version
-                    String syncCmd = "SYNC_DATA:" + key + ":" + val + ":" + ver;
+                    // SYNC_DATA:key:value:version[:expiresAt]
+                    String syncCmd = "SYNC_DATA:" + key + ":" + latest.value() + ":" + latest.version
+                            + (latest.expires() ? ":" + latest.expiresAt : "");
                     String resp = sendToNode(recoveredNode, syncCmd);
                     if (resp != null && resp.equals("ACK")) {
                         syncedCount++;
                     }
                 }
             }
-            System.out.println(
-                    "[Coordinator] Sync complete for " + recoveredNode.id + ". Entries updated: " + syncedCount);
+            Log.info("[Coordinator] Sync complete for " + recoveredNode.id + ". Entries updated: "
+                    + syncedCount + " of " + behind.size() + " behind");
         });
     }
 
+    // One replica's copy of `key`: empty if it has none, null if the node could
+    // not be reached or gave an unexpected answer
+    private Optional<VersionedValue> readFromNode(NodeInfo node, String key) {
+        if (node.binaryConnections != null) {
+            byte[] response = callNode(node, BinaryProtocol.field(BinaryProtocol.start(new ResponseBuffer(),
+                    BinaryProtocol.GET), key));
+            if (response == null)
+                return null;
+            try {
+                BinaryProtocol.Reader reader = new BinaryProtocol.Reader(response);
+                switch (reader.opcode()) {
+                    case BinaryProtocol.VALUE:
+                        byte[] value = reader.bytes();
+                        long version = reader.varint();
+                        return Optional.of(new VersionedValue(value, version, reader.varint()));
+                    case BinaryProtocol.NULL:
+                        return Optional.empty();
+                    default:
+                        return null;
+                }
+            } catch (IllegalArgumentException e) {
+                Log.error("Error parsing read response from " + node.id + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        // Expected response: VALUE:key:value:version[:expiresAt] OR NULL
+        String response = sendToNode(node, "GET:" + key);
+        if (response == null || (!response.startsWith("VALUE:") && !response.equals("NULL")))
+            return null;
+        if (response.equals("NULL"))
+            return Optional.empty();
+        try {
+            String[] parts = response.split(":");
+            // parts[0]=VALUE, parts[1]=key, parts[2]=value, parts[3]=version, parts[4]=expiresAt
+            String val = parts[2];
+            long ver = Long.parseLong(parts[3]);
+            long expiresAt = parts.length > 4 ? Long.parseLong(parts[4]) : 0;
+            return Optional.of(new VersionedValue(val, ver, expiresAt));
+        } catch (Exception e) {
+            Log.error("Error parsing read response: " + response);
+            return null;
+        }
+    }
+
+    // Replicates a stamped value; true once the node acknowledged it, null if unreachable
+    private Boolean writeToNode(NodeInfo node, String key, VersionedValue value) {
+        if (node.binaryConnections != null) {
+            byte[] response = callNode(node, BinaryProtocol.field(BinaryProtocol.field(BinaryProtocol.start(
+                    new ResponseBuffer(), BinaryProtocol.PUT), key), value).putVarint(value.version)
+                    .putVarint(value.expiresAt));
+            return response == null ? null : response.length == 1 && response[0] == BinaryProtocol.ACK;
+        }
+        String command = value.expires()
+                ? "PUTTTL:" + key + ":" + value.value() + ":" + value.version + ":" + value.expiresAt
+                : "PUT:" + key + ":" + value.value() + ":" + value.version;
+        String response = sendToNode(node, command);
+        return response == null ? null : response.equals("ACK");
+    }
+
+    private byte[] callNode(NodeInfo node, ResponseBuffer request) {
+        try {
+            return node.binaryConnections.call(request);
+        } catch (IOException e) {
+            Log.warn("[Coordinator] Failed to contact " + node.id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     private String sendToNode(NodeInfo node, String command) {
+        if (node.multiplexed != null) {
+            try {
+                return node.multiplexed.send(command);
+            } catch (IOException e) {
+                Log.warn("[Coordinator] Failed to contact " + node.id + ": " + e.getMessage());
+                return null;
+            }
+        }
+        if (options.connectionPool) {
+            try {
+                return node.connections.send(command);
+            } catch (IOException e) {
+                Log.warn("[Coordinator] Failed to contact " + node.id + ": " + e.getMessage());
+                return null;
+            }
+        }
+
         try (Socket socket = new Socket(node.ip, node.port);
                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
@@ -284,7 +931,7 @@ public class Coordinator {
             out.println(command);
             return in.readLine();
         } catch (IOException e) {
-            System.out.println("[Coordinator] Failed to contact " + node.id + ": " + e.getMessage());
+            Log.warn("[Coordinator] Failed to contact " + node.id + ": " + e.getMessage());
             return null;
         }
     }
@@ -303,11 +950,15 @@ public class Coordinator {
         int port;
         volatile boolean isAlive = true;
         long lastSeen = System.currentTimeMillis();
+        final NodeConnectionPool.Text connections;
+        volatile MultiplexedNodeClient multiplexed; // Set with --multiplex; used instead of `connections`
+        volatile NodeConnectionPool.Binary binaryConnections; // Set with --binary; carries GET, PUT and sync pushes
 
         NodeInfo(String id, String ip, int port) {
             this.id = id;
             this.ip = ip;
             this.port = port;
+            this.connections = new NodeConnectionPool.Text(ip, port);
         }
     }
 }
@@ -1,7 +1,12 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public class DataLoader {
 
@@ -9,44 +14,44 @@ public class DataLoader {
      * Loads session data from file into the given store.
      * Format expected: session:userXXX → {"userId": "...", ...}
      */
-    public static int loadSessions(String filePath, ConcurrentHashMap<String, VersionedValue> store) {
-        int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || !line.startsWith("session:")) continue;
+    public static int loadSessions(String filePath, BiConsumer<String, VersionedValue> store) {
+        AtomicInteger count = new AtomicInteger(0);
+        // Lines are independent, so parse them in parallel straight into the store
+        try (Stream<String> lines = Files.lines(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            lines.parallel().forEach(rawLine -> {
+                String line = rawLine.trim();
+                if (line.isEmpty() || !line.startsWith("session:")) return;
 
                 String[] parts = line.split(" → ", 2);
                 if (parts.length != 2) {
-                    System.out.println("Skipping invalid line: " + line);
-                    continue;
+                    Log.info("Skipping invalid line: " + line);
+                    return;
                 }
 
                 String key = parts[0].trim();   // session:user001
                 String value = parts[1].trim(); // JSON string
 
                 // Initialize with version 1
-                store.put(key, new VersionedValue(value, 1));
-                count++;
-            }
-            System.out.println("Successfully loaded " + count + " sessions from " + filePath);
-        } catch (IOException e) {
-            System.err.println("Failed to load sessions: " + e.getMessage());
+                store.accept(key, new VersionedValue(value, 1));
+                count.incrementAndGet();
+            });
+            Log.info("Successfully loaded " + count.get() + " sessions from " + filePath);
+        } catch (IOException | UncheckedIOException e) {
+            Log.error("Failed to load sessions: " + e.getMessage());
         }
-        return count;
+        return count.get();
     }
 
     // Quick standalone test
     public static void main(String[] args) {
         ConcurrentHashMap<String, VersionedValue> testStore = new ConcurrentHashMap<>();
-        int loaded = loadSessions("user_sessions.txt", testStore);
+        int loaded = loadSessions("user_sessions.txt", testStore::put);
 
         if (loaded > 0) {
             System.out.println("\nFirst few entries for verification:");
             testStore.forEach((k, v) -> {
                 if (k.compareTo("session:user020") < 0) {  // show only first ~19
-                    System.out.println(k + " → " + v.value + " (v" + v.version + ")");
+                    System.out.println(k + " → " + v.value() + " (v" + v.version + ")");
                 }
             });
         }
@@ -0,0 +1,363 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * ValueStore decorator for cache deployments (--max-bytes): keeps the
+ * estimated resident size of the wrapped store under a byte budget by
+ * evicting cold keys.
+ *
+ * Eviction is a frequency-aware CLOCK. Every key has a small counter (0-3)
+ * that reads increment; the clock hand, a concurrent queue of entries, takes
+ * the entry at its head and either decrements its counter and re-queues it,
+ * or evicts it when the counter is already 0. Hot keys thus survive several
+ * sweeps, and one-off keys go first.
+ *
+ * For scan resistance new keys also pass TinyLFU admission: a count-min
+ * sketch estimates how often every key has been accessed recently, evicted
+ * keys included. When a new key pushes the store over budget and the hand
+ * finds its victim, the newcomer is evicted instead unless it is accessed
+ * more often than the victim, so a scan of one-off keys cannot flush the
+ * working set.
+ *
+ * Writers that push the store over budget run the hand themselves, a bounded
+ * number of steps per write; there is no global lock and no sorting, only a
+ * per-key lock (the entry map's) around each store update or eviction.
+ *
+ * An evicted key is gone from memory only: it stays in the log and snapshot
+ * until the next compaction, and a stale write of it can then be accepted,
+ * which a cache deployment tolerates.
+ */
+public class EvictingValueStore implements ValueStore {
+    // Object headers, index and bookkeeping per key, roughly (key and value bytes come on top)
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+    private static final int MAX_COUNT = 3;
+    private static final int MAX_EVICTION_STEPS = 1024; // Per write; the next write continues
+
+    private final ValueStore store;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final FrequencySketch sketch;
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public EvictingValueStore(ValueStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        this.sketch = new FrequencySketch(maxBytes / (ENTRY_OVERHEAD_BYTES + 64));
+    }
+
+    @Override
+    public VersionedValue get(String key) {
+        sketch.increment(key);
+        VersionedValue value = store.get(key);
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.count < MAX_COUNT)
+            entry.count++; // Racy on purpose: a lost increment only makes the key look a little colder
+        return value;
+    }
+
+    @Override
+    public boolean putIfNewer(String key, VersionedValue value) {
+        sketch.increment(key);
+        int bytes = entryBytes(key, value);
+        boolean[] applied = new boolean[1];
+        Entry[] added = new Entry[1];
+        entries.compute(key, (k, entry) -> {
+            if (!store.putIfNewer(k, value))
+                return entry;
+            applied[0] = true;
+            if (entry == null) {
+                entry = added[0] = new Entry(k, bytes);
+                clock.offer(entry);
+                residentBytes.addAndGet(bytes);
+            } else {
+                residentBytes.addAndGet(bytes - entry.bytes);
+                entry.bytes = bytes;
+            }
+            return entry;
+        });
+        if (applied[0] && residentBytes.get() > maxBytes)
+            evict(added[0]);
+        return applied[0];
+    }
+
+    @Override
+    public boolean remove(String key) {
+        boolean[] removed = new boolean[1];
+        entries.computeIfPresent(key, (k, entry) -> {
+            removed[0] = store.remove(k);
+            residentBytes.addAndGet(-entry.bytes);
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public boolean removeIfExpired(String key, long now) {
+        boolean[] removed = new boolean[1];
+        entries.computeIfPresent(key, (k, entry) -> {
+            removed[0] = store.removeIfExpired(k, now);
+            if (!removed[0])
+                return entry;
+            residentBytes.addAndGet(-entry.bytes);
+            return null;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public boolean tombstoneIfExpired(String key, long now) {
+        boolean[] replaced = new boolean[1];
+        entries.computeIfPresent(key, (k, entry) -> {
+            replaced[0] = store.tombstoneIfExpired(k, now);
+            if (replaced[0]) {
+                int bytes = entryBytes(k, store.get(k));
+                residentBytes.addAndGet(bytes - entry.bytes);
+                entry.bytes = bytes;
+            }
+            return entry;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        store.forEach(action);
+    }
+
+    // Values change size when re-encoded (compression), so re-measure them
+    @Override
+    public void replaceAll(UnaryOperator<VersionedValue> function) {
+        store.replaceAll(function);
+        store.forEach((key, value) -> entries.computeIfPresent(key, (k, entry) -> {
+            int bytes = entryBytes(k, value);
+            residentBytes.addAndGet(bytes - entry.bytes);
+            entry.bytes = bytes;
+            return entry;
+        }));
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    // One line for the node's STATS reply
+    public String stats() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return String.format("residentBytes=%d maxBytes=%d evictions=%d hits=%d misses=%d hitRatio=%.3f",
+                residentBytes.get(), maxBytes, evictions.sum(), hitCount, lookups - hitCount,
+                lookups == 0 ? 0.0 : (double) hitCount / lookups);
+    }
+
+    // Advances the clock hand until the store is back under budget. `added`
+    // is the key whose insertion went over budget (null for an overwrite):
+    // TinyLFU admission evicts it instead of the first victim the hand finds
+    // if it is not accessed more often than that victim.
+    private void evict(Entry added) {
+        Entry candidate = added;
+        for (int step = 0; step < MAX_EVICTION_STEPS && residentBytes.get() > maxBytes; step++) {
+            Entry next = clock.poll();
+            if (next == null)
+                return;
+            boolean[] victimFound = new boolean[1];
+            boolean[] rejectCandidate = new boolean[1];
+            Entry admitting = candidate;
+            entries.computeIfPresent(next.key, (k, entry) -> {
+                if (entry != next)
+                    return entry; // Stale slot: the key was removed and re-added with its own slot
+                if (entry.count > 0) {
+                    entry.count--;
+                    clock.offer(entry); // Second chance
+                    return entry;
+                }
+                victimFound[0] = true;
+                if (admitting != null && admitting != entry
+                        && sketch.frequency(admitting.key) <= sketch.frequency(k)) {
+                    rejectCandidate[0] = true;
+                    clock.offer(entry);
+                    return entry;
+                }
+                evict(k, entry);
+                return null;
+            });
+            if (rejectCandidate[0]) {
+                entries.computeIfPresent(admitting.key, (k, entry) -> {
+                    if (entry != admitting)
+                        return entry;
+                    evict(k, entry);
+                    return null;
+                });
+            }
+            if (victimFound[0])
+                candidate = null; // Admission is decided against the first victim only
+        }
+    }
+
+    // Caller holds the entry map's lock on `key`
+    private void evict(String key, Entry entry) {
+        store.remove(key);
+        residentBytes.addAndGet(-entry.bytes);
+        evictions.increment();
+    }
+
+    private static int entryBytes(String key, VersionedValue value) {
+        return ENTRY_OVERHEAD_BYTES + key.length() + value.storedLength();
+    }
+
+    private static final class Entry {
+        final String key;
+        volatile int bytes; // Guarded by the entry map's lock on the key
+        volatile int count; // CLOCK counter, 0..MAX_COUNT
+
+        Entry(String key, int bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    // Quick standalone benchmark: hit ratio on a Zipf-distributed session
+    // workload interrupted by large one-off scans, against plain LRU of the
+    // same byte budget, e.g. java EvictingValueStore 100000 2000000
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        VersionedValue value = new VersionedValue(
+                "{\"userId\": \"user0000001\", \"loginTime\": \"01:35\", \"status\": \"active\"}", 1);
+        long budget = (long) keys / 10 * entryBytes("session:user0000000", value); // Room for 10% of the keys
+
+        double[] cumulative = new double[keys]; // Zipf(0.99) over the key space
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.99);
+            cumulative[i] = sum;
+        }
+
+        EvictingValueStore store = new EvictingValueStore(new MemoryStorageEngine.HeapStore(), budget);
+        int lruCapacity = (int) (budget / entryBytes("session:user0000000", value));
+        Map<String, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > lruCapacity;
+            }
+        };
+        long hits = 0;
+        long lruHits = 0;
+        long lookups = 0;
+        int scanned = 0;
+        Random random = new Random(11);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            String key;
+            boolean scan = i % 100_000 >= 80_000; // Every 100k requests, a 20k-key scan of cold keys
+            if (scan) {
+                key = String.format("scan:item%07d", scanned++);
+            } else {
+                int index = java.util.Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                key = String.format("session:user%07d", index < 0 ? -index - 1 : index);
+            }
+            // Read-through: a miss loads the key
+            boolean hit = store.get(key) != null;
+            if (!hit)
+                store.putIfNewer(key, value);
+            if (!scan) {
+                lookups++;
+                if (hit)
+                    hits++;
+                if (lru.get(key) != null)
+                    lruHits++;
+                else
+                    lru.put(key, Boolean.TRUE);
+            } else {
+                lru.put(key, Boolean.TRUE);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("CLOCK+TinyLFU: hitRatio=%.3f on the Zipf requests, %.0f ns per request (%s)%n",
+                (double) hits / lookups, (double) nanos / requests, store.stats());
+        System.out.printf("LRU:           hitRatio=%.3f on the Zipf requests%n", (double) lruHits / lookups);
+    }
+
+    /**
+     * TinyLFU frequency sketch: a count-min sketch of 4-bit counters, four
+     * per key, sixteen to a long. Counts are halved every 10 x width
+     * increments so old popularity fades. Updates are racy by design (a lost
+     * increment is noise in an estimate), but each writes back a whole word
+     * read once, so a counter never overflows into its neighbour.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private final AtomicLong additions = new AtomicLong();
+
+        FrequencySketch(long expectedKeys) {
+            int width = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 24, expectedKeys)) * 2 - 1);
+            this.table = new long[width];
+            this.sampleSize = 10 * width;
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int offset = (start + i) << 2;
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offset) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long word = table[index];
+                if (((word >>> offset) & 0xF) < 15)
+                    table[index] = word + (1L << offset);
+            }
+            if (additions.incrementAndGet() % sampleSize == 0)
+                reset();
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class HeartbeatManager {
     }
 
     public void start() {
-        System.out.println("[HeartbeatManager] Starting heartbeat monitoring...");
+        Log.info("[HeartbeatManager] Starting heartbeat monitoring...");
         scheduler.scheduleAtFixedRate(this::checkNodes, 0, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
@@ -34,14 +34,19 @@ public class HeartbeatManager {
             if (previousStatus && !currentStatus) {
                 // Node just failed
                 node.isAlive = false;
+                node.connections.clear(); // Pooled connections to a dead node are useless
+                if (node.binaryConnections != null)
+                    node.binaryConnections.clear();
+                if (node.multiplexed != null)
+                    node.multiplexed.clear(); // Fails requests still waiting on it
                 node.lastSeen = System.currentTimeMillis(); // Log failure time?
                 coordinator.nodeFailuresDetected.incrementAndGet(); // UPGRADE 2
-                System.out.println("[HeartbeatManager] ALERT: Node " + node.id + " FAILED (Heartbeat timeout)");
+                Log.warn("[HeartbeatManager] ALERT: Node " + node.id + " FAILED (Heartbeat timeout)");
             } else if (!previousStatus && currentStatus) {
                 // Node just recovered
                 node.isAlive = true;
                 node.lastSeen = System.currentTimeMillis();
-                System.out.println("[HeartbeatManager] ALERT: Node " + node.id + " RECOVERED");
+                Log.info("[HeartbeatManager] ALERT: Node " + node.id + " RECOVERED");
 
                 // Trigger Phase 8: Auto-Sync
                 coordinator.synchronizeNode(node);
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads newline-terminated lines as bytes, in place in its own buffer, for
+ * the blocking transports: unlike BufferedReader.readLine() no String (or
+ * char[]) is made per line, so a request can go straight to CommandParser.
+ * A line is valid until the next call to next(). Not thread-safe.
+ */
+public final class LineReader {
+    private final InputStream in;
+    private byte[] buffer = new byte[8192];
+    private int pos; // Start of unconsumed bytes
+    private int limit; // End of buffered bytes
+    private int lineStart;
+    private int lineEnd;
+
+    public LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Advances to the next line; false at end of stream. A last line without
+    // a newline still counts, as with readLine().
+    public boolean next() throws IOException {
+        int scanned = 0; // Bytes after `pos` already searched; fill() may move `pos`
+        while (true) {
+            for (int i = pos + scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineStart = pos;
+                    lineEnd = i > pos && buffer[i - 1] == '\r' ? i - 1 : i;
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            scanned = limit - pos;
+            if (!fill()) {
+                if (pos == limit)
+                    return false;
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                return true;
+            }
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int start() {
+        return lineStart;
+    }
+
+    public int end() {
+        return lineEnd;
+    }
+
+    // True if more input can be read without blocking (BufferedReader.ready())
+    public boolean ready() throws IOException {
+        return pos < limit || in.available() > 0;
+    }
+
+    // Reads more bytes, compacting or growing the buffer first; false at end of stream
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n <= 0)
+            return false;
+        limit += n;
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled, asynchronous logging for the servers.
+ *
+ * Logging a message only puts it in a lock-free ring buffer: a request
+ * thread claims a slot with one CAS and never waits on console I/O. A
+ * background thread drains the ring in batches and flushes once it has caught
+ * up; WARN and ERROR go to stderr, the rest to stdout. Only when the ring
+ * is full does a caller wait, for the drainer to make room, so nothing is
+ * lost; the drainer writes many lines per flush, far faster than one
+ * synchronized println per line.
+ *
+ * Messages below the level (--log-level, INFO by default) are discarded.
+ * Per-request logging is DEBUG, so it is off unless asked for; guard it with
+ * isDebugEnabled() so the message is not even built.
+ */
+public final class Log {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final int CAPACITY = 1 << 14; // Power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static volatile Level level = Level.INFO;
+
+    // Ring buffer: producers claim sequence numbers from `tail`, the drainer
+    // consumes from `head`. A slot is null until its message is published.
+    private static final AtomicReferenceArray<String> messages = new AtomicReferenceArray<>(CAPACITY);
+    private static final Level[] levels = new Level[CAPACITY]; // Published by the message's release write
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong head = new AtomicLong();
+    private static volatile long flushed; // Messages before this sequence number are written out
+
+    private static final PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false, StandardCharsets.UTF_8);
+    private static final PrintStream err = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16), false, StandardCharsets.UTF_8);
+
+    static {
+        Thread drainer = new Thread(Log::drain, "log-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> awaitDrained(1000), "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void log(Level messageLevel, String message) {
+        if (messageLevel.compareTo(level) < 0)
+            return;
+        long seq;
+        while (true) {
+            seq = tail.get();
+            if (seq - head.get() >= CAPACITY) {
+                LockSupport.parkNanos(10_000); // Full: wait for the drainer
+            } else if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        int slot = (int) (seq & MASK);
+        levels[slot] = messageLevel;
+        messages.setRelease(slot, message);
+    }
+
+    // Waits until everything logged so far has been written, up to `timeoutMs`
+    public static void awaitDrained(long timeoutMs) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (flushed < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private static void drain() {
+        long next = head.get();
+        int idle = 0;
+        while (true) {
+            int slot = (int) (next & MASK);
+            String message = messages.getAcquire(slot);
+            if (message == null) {
+                // Caught up (or the producer of `next` is between its CAS and its write)
+                if (idle++ == 0) {
+                    out.flush();
+                    err.flush();
+                    flushed = next;
+                }
+                LockSupport.parkNanos(idle < 100 ? 10_000 : 1_000_000);
+                continue;
+            }
+            idle = 0;
+            Level messageLevel = levels[slot];
+            messages.set(slot, null); // Cleared before `head` frees the slot for reuse
+            head.set(++next);
+            (messageLevel.compareTo(Level.WARN) >= 0 ? err : out).println(message);
+        }
+    }
+
+    // Quick standalone benchmark: requests per second from several threads
+    // that each log like a Coordinator PUT (five lines), with synchronous
+    // System.out, with DEBUG on through the ring, and with DEBUG off.
+    // Results go to stderr; point stdout at a file, e.g.
+    // java Log 4 200000 > /tmp/log.out
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        for (String mode : new String[] { "println", "async", "off" }) {
+            for (int round = 0; round < 2; round++) { // The first round warms up the JIT
+                setLevel(mode.equals("off") ? Level.INFO : Level.DEBUG);
+                Thread[] workers = new Thread[threads];
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    int id = t;
+                    workers[t] = new Thread(() -> {
+                        for (int i = 0; i < requests; i++) {
+                            String key = "user" + (i & 1023);
+                            if (mode.equals("println")) {
+                                System.out.println("[Coordinator] Received client request: PUT:" + key + ":v" + i);
+                                System.out.println("[Coordinator] Alive Nodes: 3");
+                                System.out.println("[Coordinator] Dynamic Write Quorum: 2");
+                                System.out.println("[Coordinator] Write Quorum Achieved (2/3) for " + key);
+                                System.out.println("[NodeA] PUT " + key + " v" + id + i + " (Updated)");
+                            } else if (isDebugEnabled()) {
+                                debug("[Coordinator] Received client request: PUT:" + key + ":v" + i);
+                                debug("[Coordinator] Alive Nodes: 3");
+                                debug("[Coordinator] Dynamic Write Quorum: 2");
+                                debug("[Coordinator] Write Quorum Achieved (2/3) for " + key);
+                                debug("[NodeA] PUT " + key + " v" + id + i + " (Updated)");
+                            }
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                awaitDrained(10_000); // Timed until every line is written
+                long nanos = System.nanoTime() - start;
+                long total = (long) threads * requests;
+                System.err.printf("%-7s round %d: %,.0f requests/sec%n", mode, round + 1, total * 1e9 / nanos);
+            }
+        }
+    }
+}
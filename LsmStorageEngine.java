@@ -0,0 +1,789 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured merge-tree storage engine, for datasets larger than the heap.
+ *
+ * Writes go to the write-ahead log and an in-memory memtable (a skip list).
+ * A full memtable is frozen and flushed in the background to an immutable,
+ * sorted SSTable in level 0. Leveled compaction then keeps the table count
+ * bounded: once L0 holds L0_COMPACTION_TRIGGER tables they are merged into L1,
+ * and any level over its size budget (10x the one above) pushes a table down
+ * into the next level. Tables within L1 and deeper never overlap, so a point
+ * read checks the memtables, every L0 table, and at most one table per deeper
+ * level; bloom filters skip most of those without touching disk.
+ *
+ * All files live in lsm_<nodeId>/. The MANIFEST lists the live tables and is
+ * replaced atomically after every flush or compaction; files it does not list
+ * are leftovers of an interrupted flush/compaction and are deleted at startup.
+ *
+ * Reads return an expired value as its tombstone (version only), and
+ * compaction rewrites it as one. Compaction drops it once it has been expired
+ * for --tombstone-grace-ms, but only if no deeper level could still hold an
+ * older version of the key: the expired record shadows it until then.
+ */
+public class LsmStorageEngine implements StorageEngine {
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final long L1_MAX_BYTES = 10L * 1024 * 1024;
+    private static final long TARGET_TABLE_BYTES = 2L * 1024 * 1024;
+    private static final int MAX_LEVELS = 7;
+    private static final int LOCK_STRIPES = 64;
+
+    private final String nodeId;
+    private final Path dir;
+    private final Path walFile;
+    private final Path flushingWalFile;
+    private final long memtableLimitBytes;
+    private final long tombstoneGraceMs;
+
+    private volatile NavigableMap<String, VersionedValue> memtable = new ConcurrentSkipListMap<>();
+    // Frozen memtable being written out; its WAL is at flushingWalFile until
+    // the table is published. Left set by a failed flush, which is retried.
+    private volatile NavigableMap<String, VersionedValue> flushing;
+    private final AtomicBoolean flushQueued = new AtomicBoolean(); // A flush task is queued or running
+    private final AtomicLong memtableBytes = new AtomicLong(0);
+    private volatile List<List<SSTable>> levels; // Replaced as a whole (copy-on-write)
+    private final AtomicLong nextTableId = new AtomicLong(1);
+
+    private WriteAheadLog wal;
+    // Read side: puts; write side: swapping the memtable together with the WAL
+    private final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    // Serializes read-compare-write per key for last-writer-wins
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+
+    public LsmStorageEngine(String nodeId, Options options) {
+        this.nodeId = nodeId;
+        this.dir = Paths.get("lsm_" + nodeId);
+        this.walFile = dir.resolve("memtable.log");
+        this.flushingWalFile = dir.resolve("memtable.log.flushing");
+        this.memtableLimitBytes = options.memtableBytes;
+        this.tombstoneGraceMs = options.tombstoneGraceMs;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+
+        try {
+            Files.createDirectories(dir);
+            openTables();
+            recoverMemtable();
+            wal = new WriteAheadLog(walFile, options.durability, options.fsyncIntervalMs);
+            Log.info("[" + nodeId + "] LSM engine ready: " + describeLevels() + ", durability "
+                    + options.durability);
+            if (options.compress)
+                Log.info("[" + nodeId + "] --compress applies to the memory engines; LSM values are"
+                        + " stored uncompressed");
+            if (options.maxBytes > 0)
+                Log.info("[" + nodeId + "] --max-bytes applies to the memory engines; the LSM engine"
+                        + " keeps every key on disk");
+        } catch (IOException e) {
+            // As MemoryStorageEngine: never run (and get seeded) on a partial store
+            throw new UncheckedIOException("[" + nodeId + "] Cannot open LSM storage; refusing to start: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    // An expired key comes back as its tombstone until compaction drops it
+    @Override
+    public VersionedValue get(String key) throws IOException {
+        VersionedValue value = lookup(key);
+        return value == null || !value.isExpired(System.currentTimeMillis()) ? value : value.tombstone();
+    }
+
+    // Latest version of the key, expired or not. A table that cannot be read
+    // (or fails its checksum) is an error, never "absent": put would otherwise
+    // accept an older version that shadows the newer one on disk
+    private VersionedValue lookup(String key) throws IOException {
+        VersionedValue value = memtable.get(key);
+        if (value != null)
+            return value;
+        NavigableMap<String, VersionedValue> frozen = flushing;
+        if (frozen != null && (value = frozen.get(key)) != null)
+            return value;
+
+        while (true) {
+            List<List<SSTable>> current = levels;
+            try {
+                return getFromTables(current, key);
+            } catch (ClosedChannelException e) {
+                // A compaction retired a table mid-read; retry on the new table set
+            }
+        }
+    }
+
+    private VersionedValue getFromTables(List<List<SSTable>> current, String key) throws IOException {
+        // L0 tables may overlap, so take the highest version among them
+        VersionedValue best = null;
+        for (SSTable table : current.get(0)) {
+            VersionedValue v = table.get(key);
+            if (v != null && (best == null || v.version > best.version))
+                best = v;
+        }
+        if (best != null)
+            return best;
+        // Deeper levels: disjoint key ranges, and a key found higher up is always newer
+        for (int level = 1; level < current.size(); level++) {
+            for (SSTable table : current.get(level)) {
+                if (table.mayContain(key)) {
+                    VersionedValue v = table.get(key);
+                    if (v != null)
+                        return v;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean put(String key, VersionedValue value) throws IOException {
+        if (wal == null)
+            throw new IOException("No write-ahead log");
+        ReentrantLock stripe = stripes[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+        stripe.lock();
+        try {
+            VersionedValue existing = lookup(key);
+            if (existing != null && value.version <= existing.version)
+                return false;
+
+            memtableLock.readLock().lock();
+            try {
+                wal.append(StorageRecords.encode(key, value));
+                memtable.put(key, value);
+            } finally {
+                memtableLock.readLock().unlock();
+            }
+        } finally {
+            stripe.unlock();
+        }
+
+        if (memtableBytes.addAndGet(estimateBytes(key, value)) >= memtableLimitBytes)
+            scheduleFlush();
+        return true;
+    }
+
+    // Takes the stripes of every key in the batch, in index order so batches
+    // cannot deadlock, and logs the newer entries as one record group
+    @Override
+    public int putAll(List<Map.Entry<String, VersionedValue>> entries) throws IOException {
+        if (wal == null)
+            throw new IOException("No write-ahead log");
+        boolean[] locked = new boolean[LOCK_STRIPES];
+        for (Map.Entry<String, VersionedValue> entry : entries) {
+            locked[Math.floorMod(entry.getKey().hashCode(), LOCK_STRIPES)] = true;
+        }
+        List<ReentrantLock> held = new ArrayList<>();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (locked[i]) {
+                stripes[i].lock();
+                held.add(stripes[i]);
+            }
+        }
+        Map<String, VersionedValue> applied = new HashMap<>();
+        List<byte[]> records = new ArrayList<>();
+        try {
+            for (Map.Entry<String, VersionedValue> entry : entries) {
+                String key = entry.getKey();
+                VersionedValue value = entry.getValue();
+                VersionedValue existing = applied.containsKey(key) ? applied.get(key) : lookup(key);
+                if (existing != null && value.version <= existing.version)
+                    continue;
+                applied.put(key, value);
+                records.add(StorageRecords.encode(key, value));
+            }
+            if (records.isEmpty())
+                return 0;
+
+            memtableLock.readLock().lock();
+            try {
+                wal.appendAll(records);
+                memtable.putAll(applied);
+            } finally {
+                memtableLock.readLock().unlock();
+            }
+        } finally {
+            for (ReentrantLock stripe : held) {
+                stripe.unlock();
+            }
+        }
+
+        long bytes = 0;
+        for (Map.Entry<String, VersionedValue> entry : applied.entrySet()) {
+            bytes += estimateBytes(entry.getKey(), entry.getValue());
+        }
+        if (memtableBytes.addAndGet(bytes) >= memtableLimitBytes)
+            scheduleFlush();
+        return records.size();
+    }
+
+    @Override
+    public void load(String key, VersionedValue value) {
+        memtable.merge(key, value, (existing, loaded) -> loaded.version > existing.version ? loaded : existing);
+        memtableBytes.addAndGet(estimateBytes(key, value));
+    }
+
+    // Merged, key-ordered view over the memtables and every table
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        List<Iterator<Map.Entry<String, VersionedValue>>> sources = new ArrayList<>();
+        try {
+            addAllSources(sources);
+            Iterator<Map.Entry<String, VersionedValue>> it = mergedIterator(sources);
+            while (it.hasNext()) {
+                Map.Entry<String, VersionedValue> entry = it.next();
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            // A partial VERSIONS list would read as keys this node is missing
+            throw new UncheckedIOException("[" + nodeId + "] SSTable scan error: " + e.getMessage(), e);
+        } finally {
+            closeAll(sources);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (!memtable.isEmpty() || flushing != null)
+            return false;
+        for (List<SSTable> level : levels) {
+            if (!level.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String stats() {
+        return "engine=lsm " + describeLevels().replace(", ", " ") + " memtableBytes=" + memtableBytes.get();
+    }
+
+    // COMPACT: flush the memtable, then compact every level down as far as needed
+    @Override
+    public void compact() throws IOException {
+        try {
+            background.submit(() -> {
+                flushMemtable();
+                compactLevels();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        background.shutdown();
+        if (wal != null)
+            wal.close();
+    }
+
+    // ---- Flush ----
+
+    private void scheduleFlush() {
+        if (!flushQueued.compareAndSet(false, true))
+            return; // Previous flush still running; it re-checks the size when done
+        background.submit(() -> {
+            try {
+                // Writes made during a flush do not schedule another, so keep
+                // going until the memtable is back under the limit
+                while ((flushing != null || memtableBytes.get() >= memtableLimitBytes) && flushMemtable()) {
+                    compactLevels();
+                }
+            } catch (IOException e) {
+                Log.error("[" + nodeId + "] Memtable flush failed (retried by the next flush): " + e.getMessage());
+                return; // The frozen memtable stays readable and its WAL durable
+            } finally {
+                flushQueued.set(false);
+            }
+            // A write between the last check and the reset saw this task and did not schedule one
+            if (memtableBytes.get() >= memtableLimitBytes)
+                scheduleFlush();
+        });
+    }
+
+    // Runs on the background thread only. Writes out a frozen memtable left by
+    // a failed flush first: the WAL must not be rotated again while one is
+    // pending, as that would replace the only durable copy of its writes.
+    // Returns false if there was nothing to flush.
+    private boolean flushMemtable() throws IOException {
+        boolean flushed = false;
+        if (flushing != null) {
+            writeFrozenMemtable();
+            flushed = true;
+        }
+        memtableLock.writeLock().lock();
+        try {
+            if (memtable.isEmpty())
+                return flushed;
+            // First: if it fails, the WAL keeps appending to the live file
+            // and the memtable stays, so nothing has changed
+            wal.rotate(flushingWalFile);
+            flushing = memtable;
+            memtable = new ConcurrentSkipListMap<>();
+            memtableBytes.set(0);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        writeFrozenMemtable();
+        return true;
+    }
+
+    // Writes `flushing` to a new L0 table; on failure it stays set for a retry
+    private void writeFrozenMemtable() throws IOException {
+        long start = System.currentTimeMillis();
+        long id = nextTableId.getAndIncrement();
+        // A partly written file is not in the MANIFEST, so startup removes it
+        SSTable table = SSTable.write(tablePath(0, id), 0, id, flushing.entrySet().iterator(), flushing.size());
+        List<List<SSTable>> next = copyLevels();
+        next.get(0).add(0, table); // Newest first
+        installLevels(next, Collections.emptyList());
+        flushing = null;
+        Files.deleteIfExists(flushingWalFile);
+        Log.info("[" + nodeId + "] Flushed memtable to " + table.file.getFileName() + " (" + table.records
+                + " keys, " + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    // ---- Leveled compaction ----
+
+    // Runs on the background thread only.
+    private void compactLevels() throws IOException {
+        if (levels.get(0).size() >= L0_COMPACTION_TRIGGER)
+            compactInto(1, new ArrayList<>(levels.get(0)));
+
+        for (int level = 1; level < MAX_LEVELS - 1; level++) {
+            List<SSTable> tables = levels.get(level);
+            if (levelBytes(tables) > maxBytesForLevel(level) && !tables.isEmpty()) {
+                // Push the first table down; the rest wait for the next round
+                compactInto(level + 1, new ArrayList<>(Collections.singletonList(tables.get(0))));
+            }
+        }
+    }
+
+    // Merges `inputs` with the overlapping tables of `targetLevel` into new,
+    // non-overlapping tables in `targetLevel`.
+    private void compactInto(int targetLevel, List<SSTable> inputs) throws IOException {
+        long start = System.currentTimeMillis();
+        String first = null;
+        String last = null;
+        for (SSTable table : inputs) {
+            if (table.firstKey == null)
+                continue;
+            first = first == null || table.firstKey.compareTo(first) < 0 ? table.firstKey : first;
+            last = last == null || table.lastKey.compareTo(last) > 0 ? table.lastKey : last;
+        }
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : levels.get(targetLevel)) {
+            if (table.overlaps(first, last))
+                overlapping.add(table);
+        }
+
+        List<Iterator<Map.Entry<String, VersionedValue>>> sources = new ArrayList<>();
+        List<SSTable> outputs = new ArrayList<>();
+        try {
+            for (SSTable table : inputs)
+                sources.add(table.iterator());
+            for (SSTable table : overlapping)
+                sources.add(table.iterator());
+            long now = System.currentTimeMillis();
+            // Long-expired tombstones go, unless a deeper level may hold an older version they shadow
+            long dropExpiredBefore = isBottommost(targetLevel, first, last) ? now - tombstoneGraceMs
+                    : Long.MIN_VALUE;
+            Iterator<Map.Entry<String, VersionedValue>> merged = tombstoned(mergedIterator(sources), now,
+                    dropExpiredBefore);
+
+            while (merged.hasNext()) {
+                long id = nextTableId.getAndIncrement();
+                SizeLimitedIterator chunk = new SizeLimitedIterator(merged, TARGET_TABLE_BYTES);
+                outputs.add(SSTable.write(tablePath(targetLevel, id), targetLevel, id, chunk,
+                        chunk.expectedRecords()));
+            }
+        } finally {
+            closeAll(sources); // Also when a read or write failed partway through the merge
+        }
+
+        List<SSTable> retired = new ArrayList<>(inputs);
+        retired.addAll(overlapping);
+        List<List<SSTable>> next = copyLevels();
+        int sourceLevel = inputs.get(0).level;
+        next.get(sourceLevel).removeAll(inputs);
+        next.get(targetLevel).removeAll(overlapping);
+        next.get(targetLevel).addAll(outputs);
+        next.get(targetLevel).sort(Comparator.comparing(t -> t.firstKey == null ? "" : t.firstKey));
+        installLevels(next, retired);
+
+        Log.info("[" + nodeId + "] Compacted " + retired.size() + " tables into " + outputs.size()
+                + " L" + targetLevel + " tables in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // True if no level below `level` has a table overlapping [first, last]
+    private boolean isBottommost(int level, String first, String last) {
+        for (int deeper = level + 1; deeper < levels.size(); deeper++) {
+            for (SSTable table : levels.get(deeper)) {
+                if (table.overlaps(first, last))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // Values expired by `now` become tombstones; those expired by `dropBefore` are left out
+    private static Iterator<Map.Entry<String, VersionedValue>> tombstoned(
+            Iterator<Map.Entry<String, VersionedValue>> source, long now, long dropBefore) {
+        return new Iterator<Map.Entry<String, VersionedValue>>() {
+            private Map.Entry<String, VersionedValue> next = advance();
+
+            private Map.Entry<String, VersionedValue> advance() {
+                while (source.hasNext()) {
+                    Map.Entry<String, VersionedValue> entry = source.next();
+                    VersionedValue value = entry.getValue();
+                    if (value.isExpired(dropBefore))
+                        continue;
+                    return value.isExpired(now) ? Map.entry(entry.getKey(), value.tombstone()) : entry;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, VersionedValue> next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Map.Entry<String, VersionedValue> entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    // Publishes a new table set: MANIFEST first, then readers, then old files go
+    private void installLevels(List<List<SSTable>> next, List<SSTable> retired) throws IOException {
+        writeManifest(next);
+        levels = next;
+        for (SSTable table : retired) {
+            table.delete();
+        }
+    }
+
+    // ---- Startup ----
+
+    private void openTables() throws IOException {
+        List<List<SSTable>> loaded = emptyLevels();
+        Set<String> live = new HashSet<>();
+        Path manifest = dir.resolve("MANIFEST");
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ");
+                int level;
+                long id;
+                try {
+                    level = Integer.parseInt(parts[0]);
+                    id = Long.parseLong(parts[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Corrupt MANIFEST line: " + line);
+                }
+                if (level < 0 || level >= MAX_LEVELS)
+                    throw new IOException("Corrupt MANIFEST line: " + line);
+                Path path = tablePath(level, id);
+                loaded.get(level).add(SSTable.open(path, level, id));
+                live.add(path.getFileName().toString());
+                nextTableId.set(Math.max(nextTableId.get(), id + 1));
+            }
+        }
+        loaded.get(0).sort(Comparator.comparingLong((SSTable t) -> t.id).reversed());
+        for (int level = 1; level < MAX_LEVELS; level++) {
+            loaded.get(level).sort(Comparator.comparing(t -> t.firstKey == null ? "" : t.firstKey));
+        }
+
+        // Tables not in the MANIFEST were never published
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.sst")) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString()))
+                    Files.delete(file);
+            }
+        }
+        levels = loaded;
+    }
+
+    // Replays the WAL (and a frozen WAL left by an interrupted flush), then
+    // flushes the result to L0 so both logs can be discarded. Only the live
+    // WAL may end in a torn record (a crash mid-append). The frozen one was
+    // synced before it was rotated, so a bad record in it stops startup:
+    // deleting it would lose every acknowledged write behind that record.
+    private void recoverMemtable() throws IOException {
+        StorageRecords.ReplayResult frozen = StorageRecords.replay(flushingWalFile, this::load);
+        if (frozen.isTruncated())
+            throw new IOException("Cannot recover " + flushingWalFile + ": "
+                    + (frozen.fileBytes - frozen.validBytes) + " corrupt bytes after " + frozen.records + " records");
+        StorageRecords.ReplayResult live = StorageRecords.replay(walFile, this::load);
+        if (live.isTruncated())
+            Log.warn("[" + nodeId + "] WARNING: dropping " + (live.fileBytes - live.validBytes)
+                    + " torn/corrupt bytes from the end of " + walFile);
+        if (frozen.records + live.records == 0) {
+            Files.deleteIfExists(flushingWalFile);
+            Files.deleteIfExists(walFile);
+            return;
+        }
+
+        Log.info("[" + nodeId + "] Replayed " + (frozen.records + live.records) + " WAL records");
+        long id = nextTableId.getAndIncrement();
+        SSTable table = SSTable.write(tablePath(0, id), 0, id, memtable.entrySet().iterator(), memtable.size());
+        List<List<SSTable>> next = copyLevels();
+        next.get(0).add(0, table);
+        installLevels(next, Collections.emptyList());
+        memtable = new ConcurrentSkipListMap<>();
+        memtableBytes.set(0);
+        Files.deleteIfExists(flushingWalFile);
+        Files.deleteIfExists(walFile);
+    }
+
+    // ---- Helpers ----
+
+    // Adds a source per memtable and table to `sources` as it opens them, so
+    // the caller's closeAll() also covers scans opened before one that failed
+    private void addAllSources(List<Iterator<Map.Entry<String, VersionedValue>>> sources) throws IOException {
+        sources.add(memtable.entrySet().iterator());
+        NavigableMap<String, VersionedValue> frozen = flushing;
+        if (frozen != null)
+            sources.add(frozen.entrySet().iterator());
+        for (List<SSTable> level : levels) {
+            for (SSTable table : level) {
+                sources.add(table.iterator());
+            }
+        }
+    }
+
+    // Releases the file handles of SSTable scans that did not run to the end
+    private static void closeAll(List<Iterator<Map.Entry<String, VersionedValue>>> sources) {
+        for (Iterator<Map.Entry<String, VersionedValue>> source : sources) {
+            if (source instanceof SSTable.Scan)
+                ((SSTable.Scan) source).close();
+        }
+    }
+
+    // K-way merge of key-ordered sources; for duplicate keys the highest version wins.
+    static Iterator<Map.Entry<String, VersionedValue>> mergedIterator(
+            List<Iterator<Map.Entry<String, VersionedValue>>> sources) {
+        PriorityQueue<PeekingSource> heap = new PriorityQueue<>(Comparator.comparing(s -> s.head.getKey()));
+        for (Iterator<Map.Entry<String, VersionedValue>> source : sources) {
+            if (source.hasNext())
+                heap.add(new PeekingSource(source));
+        }
+        return new Iterator<Map.Entry<String, VersionedValue>>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, VersionedValue> next() {
+                if (heap.isEmpty())
+                    throw new NoSuchElementException();
+                String key = heap.peek().head.getKey();
+                VersionedValue best = null;
+                while (!heap.isEmpty() && heap.peek().head.getKey().equals(key)) {
+                    PeekingSource source = heap.poll();
+                    if (best == null || source.head.getValue().version > best.version)
+                        best = source.head.getValue();
+                    if (source.advance())
+                        heap.add(source);
+                }
+                return Map.entry(key, best);
+            }
+        };
+    }
+
+    private static class PeekingSource {
+        final Iterator<Map.Entry<String, VersionedValue>> it;
+        Map.Entry<String, VersionedValue> head;
+
+        PeekingSource(Iterator<Map.Entry<String, VersionedValue>> it) {
+            this.it = it;
+            this.head = it.next();
+        }
+
+        boolean advance() {
+            head = it.hasNext() ? it.next() : null;
+            return head != null;
+        }
+    }
+
+    // Cuts a merged stream into table-sized chunks
+    private static class SizeLimitedIterator implements Iterator<Map.Entry<String, VersionedValue>> {
+        private final Iterator<Map.Entry<String, VersionedValue>> source;
+        private final long limitBytes;
+        private long bytes = 0;
+        private int records = 0;
+
+        SizeLimitedIterator(Iterator<Map.Entry<String, VersionedValue>> source, long limitBytes) {
+            this.source = source;
+            this.limitBytes = limitBytes;
+        }
+
+        int expectedRecords() {
+            // Used to size the bloom filter before the chunk is consumed
+            return (int) Math.max(1024, limitBytes / 64);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return bytes < limitBytes && source.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, VersionedValue> next() {
+            Map.Entry<String, VersionedValue> entry = source.next();
+            bytes += estimateBytes(entry.getKey(), entry.getValue());
+            records++;
+            return entry;
+        }
+    }
+
+    private void writeManifest(List<List<SSTable>> next) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (List<SSTable> level : next) {
+            for (SSTable table : level) {
+                sb.append(table.level).append(' ').append(table.id).append('\n');
+            }
+        }
+        Path tmp = dir.resolve("MANIFEST.tmp");
+        Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, dir.resolve("MANIFEST"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<List<SSTable>> copyLevels() {
+        List<List<SSTable>> copy = new ArrayList<>();
+        for (List<SSTable> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+
+    private static List<List<SSTable>> emptyLevels() {
+        List<List<SSTable>> empty = new ArrayList<>();
+        for (int i = 0; i < MAX_LEVELS; i++) {
+            empty.add(new ArrayList<>());
+        }
+        return empty;
+    }
+
+    private Path tablePath(int level, long id) {
+        return dir.resolve(String.format("L%d-%08d.sst", level, id));
+    }
+
+    private static long levelBytes(List<SSTable> tables) {
+        long total = 0;
+        for (SSTable table : tables) {
+            total += table.fileBytes;
+        }
+        return total;
+    }
+
+    private static long maxBytesForLevel(int level) {
+        long max = L1_MAX_BYTES;
+        for (int i = 1; i < level; i++) {
+            max *= 10;
+        }
+        return max;
+    }
+
+    private static long estimateBytes(String key, VersionedValue value) {
+        return 2L * key.length() + value.length + 64;
+    }
+
+    private String describeLevels() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < levels.size(); i++) {
+            if (!levels.get(i).isEmpty())
+                sb.append(sb.length() == 0 ? "" : ", ").append("L").append(i).append("=")
+                        .append(levels.get(i).size());
+        }
+        return sb.length() == 0 ? "no tables" : sb + " tables";
+    }
+
+    // Quick standalone check of WAL recovery: startup must refuse a frozen WAL
+    // damaged in the middle (and keep it), and accept a torn live WAL tail
+    public static void main(String[] args) throws IOException {
+        String nodeId = "wal-check-" + System.nanoTime();
+        Path dir = Paths.get("lsm_" + nodeId);
+        Options options = new Options();
+        try {
+            Files.createDirectories(dir);
+            Path frozen = dir.resolve("memtable.log.flushing");
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            int damaged = 0;
+            for (String key : new String[] { "a", "b", "c" }) {
+                log.write(StorageRecords.encode(key, new VersionedValue(key, 1)));
+                if (key.equals("b"))
+                    damaged = log.size() - 1; // Last value byte of the middle record
+            }
+            byte[] records = log.toByteArray();
+            records[damaged] ^= 1;
+            Files.write(frozen, records);
+            try {
+                new LsmStorageEngine(nodeId, options).close();
+                throw new IllegalStateException("FAIL: started on a frozen WAL with a corrupt record");
+            } catch (UncheckedIOException expected) {
+                System.out.println("OK: refused to start: " + expected.getMessage());
+            }
+            if (!Files.exists(frozen))
+                throw new IllegalStateException("FAIL: the damaged frozen WAL was deleted");
+
+            records[damaged] ^= 1;
+            Files.write(frozen, records);
+            byte[] torn = StorageRecords.encode("d", new VersionedValue("d", 1));
+            Files.write(dir.resolve("memtable.log"), Arrays.copyOf(torn, torn.length - 1));
+            LsmStorageEngine engine = new LsmStorageEngine(nodeId, options);
+            try {
+                if (engine.get("a") == null || engine.get("b") == null || engine.get("c") == null)
+                    throw new IllegalStateException("FAIL: frozen WAL records were lost");
+                System.out.println("OK: started past a torn live WAL tail with every frozen record");
+            } finally {
+                engine.close();
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+}
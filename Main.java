@@ -4,8 +4,9 @@ public class Main {
     public static void main(String[] args) {
         if (args.length < 2) {
             System.out.println("Usage:");
-            System.out.println("  java Main coordinator <port>");
-            System.out.println("  java Main node <port> <nodeId>");
+            System.out.println("  java Main coordinator <port> [options]");
+            System.out.println("  java Main node <port> <nodeId> [options]");
+            System.out.println(Options.usage());
             return;
         }
 
@@ -19,18 +20,26 @@ public class Main {
                     return;
                 }
                 String nodeId = args[2];
-                Node node = new Node(nodeId, port);
+                Options options = Options.parse(args, 3);
+                Log.setLevel(options.logLevel);
+                Node node = new Node(nodeId, port, options);
 
                 // Keep keeping it simple, just wait indefinitely
                 node.join();
             } else if (type.equalsIgnoreCase("coordinator")) {
-                Coordinator coordinator = new Coordinator(port);
+                Options options = Options.parse(args, 2);
+                Log.setLevel(options.logLevel);
+                Coordinator coordinator = new Coordinator(port, options);
                 coordinator.join();
             } else {
                 System.out.println("Unknown type: " + type);
             }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(Options.usage());
         } catch (Exception e) {
             e.printStackTrace();
+            System.exit(1); // e.g. a node that refuses to start on storage it cannot recover
         }
     }
 }
@@ -0,0 +1,549 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Default storage engine: every key lives in memory, either on-heap in a
+ * ConcurrentHashMap (HeapStore) or in off-heap slabs (OffHeapValueStore).
+ *
+ * Durability comes from a group-committed write-ahead log (storage_<id>.log)
+ * that is periodically compacted into a snapshot (snapshot_<id>.dat); startup
+ * loads the snapshot and replays the log tail behind it.
+ *
+ * With --compress, values are compressed by a ValueCodec whose dictionary is
+ * trained from a sample of the store once it holds enough values; existing
+ * values are then recompressed and the log compacted, so memory, log and
+ * snapshot all hold the compressed form. The dictionary is kept in
+ * dictionary_<id>.dat and is always loaded when present, since recovery
+ * needs it to read compressed records.
+ *
+ * With --max-bytes the store is wrapped in an EvictingValueStore, which
+ * evicts cold keys to stay within the budget (cache mode).
+ *
+ * Keys written with a TTL are scheduled on a timing wheel. Once one expires
+ * it is kept as its tombstone (version only) for --tombstone-grace-ms and
+ * then removed; get() returns the tombstone from the moment of expiry.
+ * Snapshots keep tombstones until the grace period is over.
+ */
+public class MemoryStorageEngine implements StorageEngine {
+    private static final int COMPACTION_CHECK_SECONDS = 5;
+    private static final int MIN_TRAINING_VALUES = 100;
+    private static final int TRAINING_SAMPLES = 4096;
+    private static final long EXPIRY_TICK_MS = 100;
+
+    private final String nodeId;
+    private final Options options;
+    private final String storageFile; // UPGRADE 3: Persistence file
+    private final String snapshotFile; // Point-in-time store image; storageFile holds the log after it
+    private final String dictionaryFile; // Value compression dictionary
+    private volatile ValueCodec codec; // Null until a dictionary is trained or loaded
+    // PHASE 1 & 2: Use VersionedValue
+    private final ValueStore store;
+    private WriteAheadLog wal; // Group-committed append log over storageFile
+    // Writers hold the read side from logging a record until it is in the
+    // store; compact() rotates the log under the write side
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService compactor = Executors.newScheduledThreadPool(1);
+    private final TimingWheel<String> expiry; // Keys with a TTL, by expiry time
+
+    public MemoryStorageEngine(String nodeId, Options options) {
+        this(nodeId, options, new HeapStore());
+    }
+
+    public MemoryStorageEngine(String nodeId, Options options, ValueStore store) {
+        this.nodeId = nodeId;
+        this.options = options;
+        this.store = options.maxBytes > 0 ? new EvictingValueStore(store, options.maxBytes) : store;
+        this.storageFile = "storage_" + nodeId + ".log"; // UPGRADE 3
+        this.snapshotFile = "snapshot_" + nodeId + ".dat";
+        this.dictionaryFile = "dictionary_" + nodeId + ".dat";
+        this.expiry = new TimingWheel<>("expiry-" + nodeId, EXPIRY_TICK_MS,
+                this::expire);
+        try {
+            codec = ValueCodec.load(Paths.get(dictionaryFile));
+            if (codec != null)
+                Log.info("[" + nodeId + "] Loaded " + codec.dictionaryBytes() + "-byte value dictionary");
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Cannot read " + dictionaryFile + ": " + e.getMessage());
+        }
+
+        // UPGRADE 3: Restore data from disk
+        boolean migrating = loadLegacyTextStorage();
+        loadFromDisk();
+
+        try {
+            wal = new WriteAheadLog(Paths.get(storageFile), options.durability, options.fsyncIntervalMs);
+            Log.info("[" + nodeId + "] Write-ahead log durability: " + options.durability);
+        } catch (IOException e) {
+            // Every PUT would fail; as with unreadable storage, do not start at all
+            throw new UncheckedIOException("[" + nodeId + "] Cannot open write-ahead log " + storageFile
+                    + "; refusing to start: " + e.getMessage(), e);
+        }
+        if (migrating) {
+            finishLegacyMigration();
+        }
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, COMPACTION_CHECK_SECONDS, COMPACTION_CHECK_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    // An expired key comes back as its tombstone until the grace period ends
+    @Override
+    public VersionedValue get(String key) {
+        VersionedValue value = store.get(key);
+        return value == null || !value.isExpired(System.currentTimeMillis()) ? value : value.tombstone();
+    }
+
+    // Timing wheel callback, on `store` (the wrapper, if evicting): an expired
+    // value becomes its tombstone, which is removed once the grace period is
+    // over too. A key rewritten meanwhile is left alone by both steps; one
+    // that arrived already a tombstone (sync, restore) is scheduled the same.
+    private void expire(String key) {
+        long now = System.currentTimeMillis();
+        if (store.removeIfExpired(key, now - options.tombstoneGraceMs))
+            return;
+        store.tombstoneIfExpired(key, now);
+        VersionedValue value = store.get(key);
+        if (value != null && value.isExpired(now))
+            expiry.schedule(key, value.expiresAt + options.tombstoneGraceMs);
+    }
+
+    // The record is logged first and only then applied to the store, so a
+    // value is never readable before it meets the configured durability level,
+    // and a failed append leaves no trace. No store lock is held during disk
+    // I/O. A stale value is logged too; replay keeps the newest version.
+    @Override
+    public boolean put(String key, VersionedValue value) throws IOException {
+        value = compress(value);
+        if (wal == null)
+            throw new IOException("No write-ahead log");
+        logLock.readLock().lock();
+        try {
+            // UPGRADE 3: Persistence - Append
+            wal.append(StorageRecords.encode(key, value));
+            if (!store.putIfNewer(key, value))
+                return false;
+        } finally {
+            logLock.readLock().unlock();
+        }
+        if (value.expires())
+            expiry.schedule(key, value.expiresAt);
+        return true;
+    }
+
+    @Override
+    public int putAll(List<Map.Entry<String, VersionedValue>> entries) throws IOException {
+        if (wal == null)
+            throw new IOException("No write-ahead log");
+        List<VersionedValue> values = new ArrayList<>(entries.size());
+        List<byte[]> records = new ArrayList<>(entries.size());
+        for (Map.Entry<String, VersionedValue> entry : entries) {
+            VersionedValue value = compress(entry.getValue());
+            values.add(value);
+            records.add(StorageRecords.encode(entry.getKey(), value));
+        }
+        int updated = 0;
+        logLock.readLock().lock();
+        try {
+            // As in put(): the whole batch is durable before any of it is visible
+            if (!records.isEmpty())
+                wal.appendAll(records);
+            for (int i = 0; i < values.size(); i++) {
+                VersionedValue value = values.get(i);
+                if (!store.putIfNewer(entries.get(i).getKey(), value))
+                    continue;
+                updated++;
+                if (value.expires())
+                    expiry.schedule(entries.get(i).getKey(), value.expiresAt);
+            }
+        } finally {
+            logLock.readLock().unlock();
+        }
+        return updated;
+    }
+
+    @Override
+    public void load(String key, VersionedValue value) {
+        restore(key, compress(value));
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        store.forEach(action);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.size() == 0;
+    }
+
+    @Override
+    public String stats() {
+        String stats = "engine=" + options.engine + " keys=" + store.size();
+        if (store instanceof EvictingValueStore)
+            stats += " " + ((EvictingValueStore) store).stats();
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        expiry.close();
+        if (wal != null)
+            wal.close();
+    }
+
+    // UPGRADE 3: Persistence - Restore
+    // Latest snapshot first, then the log tail behind it. A ".compacting" log is
+    // left over only if the node died mid-compaction and is replayed as well.
+    // Replay stops at the first torn or corrupt record. Only the live log may
+    // end in one (a crash mid-append); it is truncated there so new appends
+    // follow the last intact record. The snapshot and a rotated log were
+    // complete when written, so a bad record in them stops the node instead.
+    private void loadFromDisk() {
+        Log.info("[" + nodeId + "] Loading data from " + snapshotFile + " and " + storageFile + "...");
+        long start = System.nanoTime();
+        int threads = options.recoveryThreads;
+        StorageRecords.ReplayResult snapshot = replay(Paths.get(snapshotFile));
+        StorageRecords.ReplayResult rotated = replay(Paths.get(storageFile + ".compacting"));
+        StorageRecords.ReplayResult log = replay(Paths.get(storageFile));
+
+        rejectTruncated(snapshot, Paths.get(snapshotFile));
+        rejectTruncated(rotated, Paths.get(storageFile + ".compacting"));
+        if (log.isTruncated()) {
+            Log.warn("[" + nodeId + "] WARNING: truncating " + (log.fileBytes - log.validBytes)
+                    + " torn/corrupt bytes from the end of " + storageFile);
+            try (FileChannel channel = FileChannel.open(Paths.get(storageFile), StandardOpenOption.WRITE)) {
+                channel.truncate(log.validBytes);
+            } catch (IOException e) {
+                // New appends would land behind the corrupt bytes, where replay never reaches
+                throw new UncheckedIOException("[" + nodeId + "] Cannot truncate " + storageFile, e);
+            }
+        }
+
+        long records = snapshot.records + rotated.records + log.records;
+        if (records == 0)
+            return;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = (snapshot.validBytes + rotated.validBytes + log.validBytes) / (1024.0 * 1024.0);
+        Log.info(String.format("[%s] Restored %d keys (%d snapshot records, %d log records, %.1f MB) in %.0f ms"
+                + " (%.1f MB/s, %.0f records/sec per core on %d threads)", nodeId, store.size(),
+                snapshot.records, rotated.records + log.records, megabytes, seconds * 1000, megabytes / seconds,
+                records / seconds / threads, threads));
+    }
+
+    // Every key behind the bad record would be lost: the next compaction
+    // snapshots the partial store and deletes the rotated log
+    private void rejectTruncated(StorageRecords.ReplayResult result, Path file) {
+        if (result.isTruncated())
+            throw new UncheckedIOException(new IOException("[" + nodeId + "] Cannot recover " + file + ": "
+                    + (result.fileBytes - result.validBytes) + " corrupt bytes after " + result.records
+                    + " records; refusing to start on a partial store"));
+    }
+
+    // Memory-mapped and parsed in parallel; restore() keeps the highest version
+    // per key. A file that cannot be read stops the node: running on a partial
+    // store would serve stale data, and the next compaction would delete a
+    // rotated log that was never replayed.
+    private StorageRecords.ReplayResult replay(Path file) {
+        try {
+            return StorageRecords.replayParallel(file, codec, this::restore, options.recoveryThreads);
+        } catch (IOException e) {
+            throw new UncheckedIOException("[" + nodeId + "] Cannot recover " + file
+                    + "; refusing to start on a partial store: " + e.getMessage(), e);
+        }
+    }
+
+    // One-time migration from the old text files (storage_<id>.txt and
+    // snapshot_<id>.txt). They are loaded here and, once a binary snapshot
+    // holds their contents, renamed to *.migrated by finishLegacyMigration().
+    private boolean loadLegacyTextStorage() {
+        String[] legacyLogs = { legacyStorageFile() + ".compacting", legacyStorageFile() };
+        boolean found = new File(legacySnapshotFile()).exists();
+        int count = loadLegacySnapshot();
+        for (String file : legacyLogs) {
+            found |= new File(file).exists();
+            count += replayLegacyLog(file);
+        }
+        if (found)
+            Log.info("[" + nodeId + "] Migrating " + count + " records from the text storage format...");
+        return found;
+    }
+
+    private void finishLegacyMigration() {
+        try {
+            compact();
+            for (String file : new String[] { legacySnapshotFile(), legacyStorageFile() + ".compacting",
+                    legacyStorageFile() }) {
+                Path path = Paths.get(file);
+                if (Files.exists(path))
+                    Files.move(path, Paths.get(file + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Log.info("[" + nodeId + "] Migration to the binary storage format complete.");
+        } catch (IOException e) {
+            // The text files are kept, so the next start simply retries
+            Log.error("[" + nodeId + "] Migration failed: " + e.getMessage());
+        }
+    }
+
+    private String legacyStorageFile() {
+        return "storage_" + nodeId + ".txt";
+    }
+
+    private String legacySnapshotFile() {
+        return "snapshot_" + nodeId + ".txt";
+    }
+
+    private int replayLegacyLog(String file) {
+        int count = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // Format: key:value:version
+                // Be careful with splitting if value contains colons.
+                // Protocol assumes PUT:key:val:ver. Here we store key:val:ver.
+                // Simpler parsing for academic purposes: assume keys/values don't break format
+                // easily or use last index for version.
+
+                int firstColon = line.indexOf(':');
+                int lastColon = line.lastIndexOf(':');
+
+                if (firstColon == -1 || lastColon == -1 || firstColon == lastColon)
+                    continue;
+
+                String key = line.substring(0, firstColon);
+                String value = line.substring(firstColon + 1, lastColon);
+                try {
+                    restore(key, new VersionedValue(value, Long.parseLong(line.substring(lastColon + 1))));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // Torn or unparseable line; skip it rather than abort the migration
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing logged yet
+        } catch (IOException e) {
+            // As for the snapshot: never rename away a log that was only partly read
+            throw new UncheckedIOException("[" + nodeId + "] Cannot read " + file
+                    + "; refusing to start without migrating it: " + e.getMessage(), e);
+        }
+        return count;
+    }
+
+    // The snapshot was written whole, so unlike a log's torn tail any line it
+    // cannot parse means damage: migrating the rest and renaming the file to
+    // *.migrated would lose those keys for good, so refuse to start instead
+    private int loadLegacySnapshot() {
+        int count = 0;
+        int lineNumber = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(legacySnapshotFile(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                // Format: keyLength:key:value:version (keys may contain ':')
+                int lengthEnd = line.indexOf(':');
+                int keyEnd = lengthEnd + 1 + Integer.parseInt(line.substring(0, lengthEnd));
+                int lastColon = line.lastIndexOf(':');
+                if (keyEnd >= lastColon || line.charAt(keyEnd) != ':')
+                    throw new IllegalArgumentException("Key length does not match the line");
+
+                String key = line.substring(lengthEnd + 1, keyEnd);
+                String value = line.substring(keyEnd + 1, lastColon);
+                long version = Long.parseLong(line.substring(lastColon + 1));
+
+                restore(key, new VersionedValue(value, version));
+                count++;
+            }
+        } catch (FileNotFoundException e) {
+            // No snapshot yet
+        } catch (IOException e) {
+            throw new UncheckedIOException("[" + nodeId + "] Cannot read " + legacySnapshotFile()
+                    + "; refusing to start without migrating it: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(new IOException("[" + nodeId + "] Cannot parse line " + lineNumber
+                    + " of " + legacySnapshotFile() + "; refusing to start without migrating it: " + e, e));
+        }
+        return count;
+    }
+
+    // Concurrent writers may log versions of a key out of order, so keep the
+    // highest. Already expired values are applied too, so they still shadow
+    // older versions of the key; the timing wheel turns them into tombstones
+    // (or removes them, past the grace period) right away.
+    private void restore(String key, VersionedValue value) {
+        if (store.putIfNewer(key, value) && value.expires())
+            expiry.schedule(key, value.expiresAt);
+    }
+
+    // Log compaction: write a point-in-time snapshot of the store, then drop the
+    // log behind it. The log is rotated first, under the write side of logLock,
+    // so every record in the rotated file was applied to the store before the
+    // snapshot starts iterating it; writes arriving meanwhile land in the fresh
+    // log and are kept.
+    @Override
+    public synchronized void compact() throws IOException {
+        if (wal == null)
+            throw new IOException("No write-ahead log");
+        Path log = Paths.get(storageFile);
+        Path rotated = Paths.get(storageFile + ".compacting");
+        Path snapshot = Paths.get(snapshotFile);
+        Path tmp = Paths.get(snapshotFile + ".tmp");
+        long start = System.currentTimeMillis();
+        long logBytes = wal.size();
+
+        // A leftover rotated log was loaded at startup, so this snapshot covers it too
+        if (!Files.exists(rotated)) {
+            logLock.writeLock().lock();
+            try {
+                wal.rotate(rotated);
+            } finally {
+                logLock.writeLock().unlock();
+            }
+        }
+
+        int count = StorageRecords.writeSnapshot(tmp, store, options.tombstoneGraceMs);
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(rotated);
+
+        Log.info("[" + nodeId + "] Compacted " + logBytes + " log bytes into a snapshot of " + count
+                + " keys in " + (System.currentTimeMillis() - start) + " ms (" + log.getFileName() + " truncated)");
+    }
+
+    private VersionedValue compress(VersionedValue value) {
+        ValueCodec current = codec;
+        return options.compress && current != null ? current.compress(value) : value;
+    }
+
+    // Trains the dictionary from a uniform sample of the store, saves it, then
+    // recompresses every value and compacts so the log and snapshot shrink too
+    private synchronized void trainCodec() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        Random random = new Random();
+        int[] seen = new int[1];
+        store.forEach((key, value) -> { // Reservoir sampling
+            byte[] utf8 = new byte[value.length];
+            int slot = seen[0] < TRAINING_SAMPLES ? seen[0] : random.nextInt(seen[0] + 1);
+            seen[0]++;
+            if (slot < TRAINING_SAMPLES) {
+                value.copyTo(utf8, 0);
+                if (slot == samples.size()) {
+                    samples.add(utf8);
+                } else {
+                    samples.set(slot, utf8);
+                }
+            }
+        });
+
+        ValueCodec trained = ValueCodec.train(samples);
+        trained.save(Paths.get(dictionaryFile));
+        codec = trained;
+
+        AtomicLong before = new AtomicLong();
+        AtomicLong after = new AtomicLong();
+        store.replaceAll(value -> {
+            VersionedValue compressed = trained.compress(value);
+            before.addAndGet(value.storedLength());
+            after.addAndGet(compressed.storedLength());
+            return compressed;
+        });
+        Log.info("[" + nodeId + "] Trained a " + trained.dictionaryBytes() + "-byte value dictionary from "
+                + samples.size() + " samples; values " + before.get() + " -> " + after.get() + " bytes");
+        compact();
+    }
+
+    private void compactIfNeeded() {
+        try {
+            if (options.compress && codec == null && store.size() >= MIN_TRAINING_VALUES)
+                trainCodec();
+            if (wal != null && wal.size() >= options.compactThresholdBytes)
+                compact();
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Compaction failed: " + e.getMessage());
+        }
+    }
+
+    // On-heap ValueStore: one String key and VersionedValue object per entry
+    static class HeapStore implements ValueStore {
+        private final ConcurrentHashMap<String, VersionedValue> map = new ConcurrentHashMap<>();
+
+        @Override
+        public VersionedValue get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public boolean putIfNewer(String key, VersionedValue value) {
+            boolean[] updated = new boolean[1];
+            map.compute(key, (k, existing) -> {
+                if (existing == null || value.version > existing.version) {
+                    updated[0] = true;
+                    return value;
+                }
+                return existing;
+            });
+            return updated[0];
+        }
+
+        @Override
+        public boolean remove(String key) {
+            return map.remove(key) != null;
+        }
+
+        @Override
+        public boolean removeIfExpired(String key, long now) {
+            boolean[] removed = new boolean[1];
+            map.computeIfPresent(key, (k, existing) -> {
+                removed[0] = existing.isExpired(now);
+                return removed[0] ? null : existing;
+            });
+            return removed[0];
+        }
+
+        @Override
+        public boolean tombstoneIfExpired(String key, long now) {
+            boolean[] replaced = new boolean[1];
+            map.computeIfPresent(key, (k, existing) -> {
+                VersionedValue tombstone = existing.isExpired(now) ? existing.tombstone() : existing;
+                replaced[0] = tombstone != existing;
+                return tombstone;
+            });
+            return replaced[0];
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, VersionedValue> action) {
+            map.forEach(action);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<VersionedValue> function) {
+            map.replaceAll((key, value) -> function.apply(value));
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+}
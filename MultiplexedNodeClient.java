@@ -0,0 +1,184 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multiplexed connections from the Coordinator to one storage node, using the
+ * node's framed protocol: a request goes out as "#<id>:<command>" and its
+ * response comes back as "#<id>:<response>", in any order. Any number of
+ * requests can be outstanding on a connection, so a few connections carry
+ * all traffic to the node (--multiplex, --node-connections=N) instead of one
+ * pooled connection per in-flight request.
+ *
+ * Senders are spread round-robin over the connections. Whoever takes a
+ * connection's write lock also writes every request queued behind it, so
+ * concurrent senders share one write and flush. A reader thread per
+ * connection completes the callers' futures. A broken connection fails every
+ * request outstanding on it and is reopened by the next send.
+ */
+public class MultiplexedNodeClient {
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final long RESPONSE_TIMEOUT_MS = 5000;
+
+    private final String ip;
+    private final int port;
+    private final Channel[] channels;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger nextChannel = new AtomicInteger();
+
+    public MultiplexedNodeClient(String ip, int port, int connections) {
+        this.ip = ip;
+        this.port = port;
+        this.channels = new Channel[Math.max(1, connections)];
+    }
+
+    // Sends one command and returns its single-line response
+    public String send(String command) throws IOException {
+        return channel().send(command);
+    }
+
+    // Closes every connection, failing what is outstanding on them, e.g. after
+    // the node has been detected as failed
+    public synchronized void clear() {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].close(new IOException("Connections to node cleared"));
+                channels[i] = null;
+            }
+        }
+    }
+
+    private synchronized Channel channel() throws IOException {
+        int i = Math.floorMod(nextChannel.getAndIncrement(), channels.length);
+        if (channels[i] == null || channels[i].closed)
+            channels[i] = new Channel(open(), ip + ":" + port + "#" + i);
+        return channels[i];
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ip, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private class Channel {
+        final Socket socket;
+        final OutputStream out;
+        final BufferedReader in;
+        final Map<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<byte[]> outgoing = new ConcurrentLinkedQueue<>();
+        final ReentrantLock writeLock = new ReentrantLock();
+        volatile boolean closed = false;
+
+        Channel(Socket socket, String name) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+                    1 << 16);
+            Thread reader = new Thread(this::readResponses, "node-client-" + name);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        String send(String command) throws IOException {
+            long id = nextId.incrementAndGet();
+            CompletableFuture<String> response = new CompletableFuture<>();
+            pending.put(id, response);
+            if (closed) { // Closed before the put: close() may have missed this request
+                pending.remove(id);
+                throw new IOException("Connection to node closed");
+            }
+            outgoing.add(("#" + id + ":" + command + "\n").getBytes(StandardCharsets.UTF_8));
+            flushOutgoing();
+            try {
+                return response.get(RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for node", e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("Node did not answer within " + RESPONSE_TIMEOUT_MS + " ms");
+            } finally {
+                pending.remove(id);
+            }
+        }
+
+        // Writes everything queued in one go; a sender that finds the lock
+        // taken leaves its request to the holder, which checks again after
+        // unlocking so nothing is left behind
+        private void flushOutgoing() {
+            while (!outgoing.isEmpty() && writeLock.tryLock()) {
+                try {
+                    byte[] request;
+                    int written = 0;
+                    while ((request = outgoing.poll()) != null) {
+                        out.write(request);
+                        written++;
+                    }
+                    if (written > 0)
+                        out.flush();
+                } catch (IOException e) {
+                    close(e);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        private void readResponses() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int colon = line.indexOf(':');
+                    if (!line.startsWith("#") || colon < 0) {
+                        Log.error("[Coordinator] Unframed response from node: " + line);
+                        continue;
+                    }
+                    CompletableFuture<String> response = pending.remove(Long.parseLong(line.substring(1, colon)));
+                    if (response != null) // Null if its sender timed out
+                        response.complete(line.substring(colon + 1));
+                }
+                close(new IOException("Connection closed by node"));
+            } catch (IOException e) {
+                close(e);
+            } catch (NumberFormatException e) {
+                close(new IOException("Bad response ID from node", e)); // Out of step: fail everything
+            }
+        }
+
+        void close(IOException cause) {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            outgoing.clear();
+            for (CompletableFuture<String> response : pending.values()) {
+                response.completeExceptionally(cause);
+            }
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Non-blocking transport for the newline-delimited text protocol and the
+ * binary protocol (see BinaryProtocol), told apart by a connection's first byte.
+ *
+ * One acceptor thread hands connections round-robin to a small, fixed set of
+ * event-loop threads. Each loop owns a Selector plus a direct read buffer and a
+ * direct write buffer that are reused for every connection it serves. Complete
+ * lines are handed to a worker executor (handlers may block on replica I/O);
+ * each connection's lines are processed one at a time so responses go back in
+ * request order, exactly like the blocking server. Lines tagged with a request
+ * ID ("#<id>:...", see Node) are independent: each runs as its own task and
+ * its response is queued as soon as it is ready. Binary frames are handled
+ * in order like untagged lines.
+ */
+public class NioServer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final int port;
+    private final ExecutorService workers;
+    // Maps a request line's bytes (newline stripped) to its complete response
+    // line (newline included); returns null to drop the connection
+    private final Function<byte[], byte[]> handler;
+    // Maps a binary request frame body to its complete response frame; null drops the connection
+    private final Function<byte[], byte[]> frameHandler;
+    private final BooleanSupplier acceptConnections;
+    private final EventLoop[] loops;
+
+    public NioServer(String name, int port, int eventLoops, ExecutorService workers,
+            Function<byte[], byte[]> handler, Function<byte[], byte[]> frameHandler,
+            BooleanSupplier acceptConnections) {
+        this.name = name;
+        this.port = port;
+        this.workers = workers;
+        this.handler = handler;
+        this.frameHandler = frameHandler;
+        this.acceptConnections = acceptConnections;
+        this.loops = new EventLoop[eventLoops];
+    }
+
+    public void start() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            new Thread(loops[i], name + "-loop-" + i).start();
+        }
+
+        new Thread(() -> {
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    if (!acceptConnections.getAsBoolean()) {
+                        channel.close(); // Simulate failure by dropping connection
+                        continue;
+                    }
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                } catch (IOException e) {
+                    Log.error("[" + name + "] Accept error: " + e.getMessage());
+                }
+            }
+        }, name + "-acceptor").start();
+
+        Log.info("[" + name + "] NIO server listening on port " + port + " with " + loops.length
+                + " event loops");
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // Called by workers when a connection has new output queued
+        void requestWrite(Connection conn) {
+            pendingWrites.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerNewChannels();
+                    flushPendingWrites();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable())
+                                read(conn);
+                            if (key.isValid() && key.isWritable())
+                                write(conn);
+                        } catch (IOException e) {
+                            conn.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.error("[" + name + "] Event loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerNewChannels() throws IOException {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                Connection conn = new Connection(this, channel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            }
+        }
+
+        private void flushPendingWrites() {
+            Connection conn;
+            while ((conn = pendingWrites.poll()) != null) {
+                if (!conn.key.isValid())
+                    continue;
+                try {
+                    write(conn);
+                } catch (IOException e) {
+                    conn.close();
+                }
+            }
+        }
+
+        private void read(Connection conn) throws IOException {
+            readBuffer.clear();
+            int n = conn.channel.read(readBuffer);
+            if (n == -1) {
+                // Client half-closed: stop reading but finish answering what it sent
+                conn.inputClosed = true;
+                conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_READ);
+                conn.closeIfDone();
+                return;
+            }
+            readBuffer.flip();
+            if (conn.binary == null && readBuffer.hasRemaining()) {
+                conn.binary = (readBuffer.get(0) & 0xFF) == BinaryProtocol.MAGIC;
+                if (conn.binary)
+                    readBuffer.get(); // Skip the magic byte
+            }
+            if (conn.binary) {
+                conn.enqueueFrames(readBuffer);
+            } else {
+                while (readBuffer.hasRemaining()) {
+                    byte b = readBuffer.get();
+                    if (b == '\n') {
+                        conn.enqueueLine();
+                    } else if (b != '\r') {
+                        conn.partialLine.write(b);
+                    }
+                }
+            }
+            conn.scheduleIfIdle();
+        }
+
+        // Copies queued responses through the loop's direct buffer; anything the
+        // socket does not accept stays queued and OP_WRITE is armed.
+        private void write(Connection conn) throws IOException {
+            while (!conn.output.isEmpty()) {
+                writeBuffer.clear();
+                int offset = conn.outputOffset;
+                for (byte[] chunk : conn.output) {
+                    int len = Math.min(chunk.length - offset, writeBuffer.remaining());
+                    writeBuffer.put(chunk, offset, len);
+                    offset = 0;
+                    if (!writeBuffer.hasRemaining())
+                        break;
+                }
+                writeBuffer.flip();
+                int written = conn.channel.write(writeBuffer);
+                conn.consumeOutput(written);
+                if (writeBuffer.hasRemaining()) {
+                    conn.key.interestOps(conn.key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            conn.key.interestOps(conn.key.interestOps() & ~SelectionKey.OP_WRITE);
+            conn.closeIfDone();
+        }
+    }
+
+    private class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+
+        // Event-loop state
+        Boolean binary; // Null until the first byte has arrived
+        final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        // Binary: the frame being read. Its body is allocated once its length
+        // is known and filled in place, so a large frame is copied only once.
+        final byte[] frameHeader = new byte[6]; // One more than the longest varint, to reject it
+        int frameHeaderBytes = 0;
+        byte[] frameBody; // Null while reading the header
+        int frameBodyBytes = 0;
+        boolean inputClosed = false;
+        int outputOffset = 0;
+
+        // Shared with the worker; guarded by `this`
+        final Queue<byte[]> lines = new ArrayDeque<>(); // Text lines or binary frame bodies
+        boolean processing = false;
+        int taggedRunning = 0; // Tagged lines handed to their own task
+        boolean dropped = false;
+
+        final Queue<byte[]> output = new ConcurrentLinkedQueue<>();
+
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void enqueueLine() {
+            byte[] line = partialLine.toByteArray();
+            partialLine.reset();
+            synchronized (this) {
+                lines.add(line);
+            }
+        }
+
+        // Queues the body of every complete frame; keeps the rest for the next read
+        void enqueueFrames(ByteBuffer input) throws IOException {
+            while (input.hasRemaining()) {
+                if (frameBody == null) {
+                    frameHeader[frameHeaderBytes++] = input.get();
+                    int length = BinaryProtocol.frameLength(frameHeader, frameHeaderBytes);
+                    if (length != -1) {
+                        frameBody = new byte[length];
+                        frameHeaderBytes = 0;
+                    }
+                    continue;
+                }
+                int n = Math.min(input.remaining(), frameBody.length - frameBodyBytes);
+                input.get(frameBody, frameBodyBytes, n);
+                frameBodyBytes += n;
+                if (frameBodyBytes == frameBody.length) {
+                    synchronized (this) {
+                        lines.add(frameBody);
+                    }
+                    frameBody = null;
+                    frameBodyBytes = 0;
+                }
+            }
+        }
+
+        void scheduleIfIdle() {
+            synchronized (this) {
+                if (processing || lines.isEmpty())
+                    return;
+                processing = true;
+            }
+            workers.submit(this::processLines);
+        }
+
+        // Worker side: drain this connection's lines (or frames) in order
+        private void processLines() {
+            while (true) {
+                byte[] line;
+                synchronized (this) {
+                    line = lines.poll();
+                    if (line == null || dropped) {
+                        processing = false;
+                        break;
+                    }
+                    if (!binary && line.length > 0 && line[0] == '#') {
+                        taggedRunning++;
+                        byte[] tagged = line;
+                        workers.submit(() -> respond(tagged, true));
+                        continue;
+                    }
+                }
+                respond(line, false);
+            }
+            loop.requestWrite(this); // Lets the loop close a half-closed connection
+        }
+
+        private void respond(byte[] request, boolean tagged) {
+            byte[] response = null;
+            try {
+                // `binary` was set by the loop before the request was queued under the lock
+                response = binary ? frameHandler.apply(request) : handler.apply(request);
+            } catch (RuntimeException e) {
+                // Answer it like any failed request; the connection stays in step
+                Log.error("[" + name + "] Request handler error: " + e);
+                response = errorResponse(request);
+            } finally {
+                synchronized (this) {
+                    if (response == null)
+                        dropped = true;
+                    else
+                        output.add(response); // Whole responses, so concurrent tasks never interleave
+                    if (tagged)
+                        taggedRunning--;
+                }
+                loop.requestWrite(this);
+            }
+        }
+
+        // ERROR:InternalError (after the request's "#<id>:" tag, if any), or
+        // an ERROR frame on a binary connection
+        private byte[] errorResponse(byte[] request) {
+            if (binary)
+                return BinaryProtocol.frame(BinaryProtocol.message(new ResponseBuffer(), BinaryProtocol.ERROR,
+                        "InternalError"));
+            ResponseBuffer response = new ResponseBuffer();
+            if (request.length > 0 && request[0] == '#') {
+                for (int i = 1; i < request.length; i++) {
+                    if (request[i] == ':') {
+                        response.put(request, 0, i + 1);
+                        break;
+                    }
+                }
+            }
+            return response.line("ERROR:InternalError").toByteArray();
+        }
+
+        void consumeOutput(int written) {
+            while (written > 0) {
+                byte[] head = output.peek();
+                int remaining = head.length - outputOffset;
+                if (written >= remaining) {
+                    output.poll();
+                    outputOffset = 0;
+                    written -= remaining;
+                } else {
+                    outputOffset += written;
+                    written = 0;
+                }
+            }
+        }
+
+        // Event-loop side: close once there is nothing left to read, run or send
+        void closeIfDone() {
+            synchronized (this) {
+                if (dropped && output.isEmpty()) {
+                    close();
+                    return;
+                }
+                if (!inputClosed || processing || taggedRunning > 0 || !lines.isEmpty() || !output.isEmpty())
+                    return;
+            }
+            close();
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
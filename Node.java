@@ -1,95 +1,99 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
 
 public class Node {
+    // Frequent responses, encoded once
+    private static final byte[] ACK = "ACK\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "NULL\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ALIVE = "ALIVE\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE_PREFIX = "VALUE:".getBytes(StandardCharsets.UTF_8);
+    // NIO workers encode into a per-thread buffer and queue an exact copy
+    private static final ThreadLocal<ResponseBuffer> NIO_RESPONSES = ThreadLocal.withInitial(ResponseBuffer::new);
+    // Per thread; a parser is a few offsets, the key cache behind it is shared
+    private static final ThreadLocal<CommandParser> PARSERS = ThreadLocal.withInitial(CommandParser::new);
+
     private final String nodeId;
     private final int port;
-    private final String storageFile; // UPGRADE 3: Persistence file
-    // PHASE 1 & 2: Use VersionedValue
-    private final ConcurrentHashMap<String, VersionedValue> store = new ConcurrentHashMap<>();
+    private final Options options;
+    // PHASE 1 & 2: Use VersionedValue, behind a pluggable storage engine
+    private final StorageEngine engine;
     private volatile boolean isAlive = true;
     private ServerSocket serverSocket;
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor;
 
     public Node(String nodeId, int port) {
+        this(nodeId, port, new Options());
+    }
+
+    public Node(String nodeId, int port, Options options) {
         this.nodeId = nodeId;
         this.port = port;
-        this.storageFile = "storage_" + nodeId + ".txt"; // UPGRADE 3
-        System.out.println("Node created: " + nodeId + " on port " + port);
+        this.options = options;
+        this.executor = options.newRequestExecutor();
+        Log.info("Node created: " + nodeId + " on port " + port);
 
         // UPGRADE 3: Restore data from disk
-        loadFromDisk();
+        this.engine = createEngine(nodeId, options);
 
         // Load initial data (if needed, or maybe removed if purely relying on
         // sync/persistence)
         // DataLoader.loadSessions("user_sessions.txt", store);
         // NOTE: Keeping DataLoader for initial seeding if empty, but persistence is
         // primary.
-        if (store.isEmpty()) {
-            DataLoader.loadSessions("user_sessions.txt", store);
+        if (engine.isEmpty()) {
+            DataLoader.loadSessions("user_sessions.txt", engine::load);
         }
 
         // Start server thread
         startServer();
     }
 
-    // UPGRADE 3: Persistence - Restore
-    private void loadFromDisk() {
-        System.out.println("[" + nodeId + "] Loading data from " + storageFile + "...");
-        int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(storageFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // Format: key:value:version
-                // Be careful with splitting if value contains colons.
-                // Protocol assumes PUT:key:val:ver. Here we store key:val:ver.
-                // Simpler parsing for academic purposes: assume keys/values don't break format
-                // easily or use last index for version.
-
-                int firstColon = line.indexOf(':');
-                int lastColon = line.lastIndexOf(':');
-
-                if (firstColon == -1 || lastColon == -1 || firstColon == lastColon)
-                    continue;
-
-                String key = line.substring(0, firstColon);
-                String value = line.substring(firstColon + 1, lastColon);
-                int version = Integer.parseInt(line.substring(lastColon + 1));
-
-                store.put(key, new VersionedValue(value, version));
-                count++;
-            }
-            System.out.println("[" + nodeId + "] Restored " + count + " records from disk.");
-        } catch (IOException e) {
-            System.out.println("[" + nodeId + "] No existing storage found or error reading: " + e.getMessage());
+    private static StorageEngine createEngine(String nodeId, Options options) {
+        switch (options.engine) {
+            case "lsm":
+                return new LsmStorageEngine(nodeId, options);
+            case "memory":
+                return new MemoryStorageEngine(nodeId, options);
+            case "offheap":
+                return new MemoryStorageEngine(nodeId, options, new OffHeapValueStore());
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + options.engine);
         }
     }
 
-    // UPGRADE 3: Persistence - Append
-    private synchronized void saveToDisk(String key, String value, int version) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(storageFile, true))) {
-            bw.write(key + ":" + value + ":" + version);
-            bw.newLine();
-        } catch (IOException e) {
-            System.err.println("[" + nodeId + "] Disk Write Error: " + e.getMessage());
+    private void startServer() {
+        if (options.nio) {
+            try {
+                // A killed node drops connections, both new and established
+                new NioServer(nodeId, port, options.eventLoops, executor,
+                        line -> !isAlive ? null : handleNioLine(line),
+                        frame -> !isAlive ? null : BinaryProtocol.frame(handleFrame(frame, NIO_RESPONSES.get())),
+                        () -> isAlive).start();
+            } catch (IOException e) {
+                Log.error("[" + nodeId + "] Server start error: " + e.getMessage());
+            }
+            return;
         }
-    }
 
-    private void startServer() {
         new Thread(() -> {
             try {
                 serverSocket = new ServerSocket(port);
-                System.out.println("[" + nodeId + "] Listening on port " + port);
+                Log.info("[" + nodeId + "] Listening on port " + port);
                 while (!serverSocket.isClosed()) {
                     try {
                         Socket clientSocket = serverSocket.accept();
@@ -100,12 +104,12 @@ public class Node {
                         }
                     } catch (IOException e) {
                         if (!serverSocket.isClosed()) {
-                            System.err.println("[" + nodeId + "] Accept error: " + e.getMessage());
+                            Log.error("[" + nodeId + "] Accept error: " + e.getMessage());
                         }
                     }
                 }
             } catch (IOException e) {
-                System.err.println("[" + nodeId + "] Server start error: " + e.getMessage());
+                Log.error("[" + nodeId + "] Server start error: " + e.getMessage());
             }
         }).start();
     }
@@ -116,119 +120,470 @@ public class Node {
 
     public void setSimulateNetworkDelay(boolean simulate) {
         this.simulateNetworkDelay = simulate;
-        System.out.println("[" + nodeId + "] Network Delay Simulation: " + simulate);
+        Log.info("[" + nodeId + "] Network Delay Simulation: " + simulate);
     }
 
     private void handleRequest(Socket socket) {
         try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            String inputLine = in.readLine();
-            if (inputLine == null)
-                return;
-
-            // PHASE 9: Artificial delay
-            if (simulateNetworkDelay) {
-                try {
-                    Thread.sleep((long) (Math.random() * randomDelay));
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            socket.setTcpNoDelay(true); // Large replies (batches) end in a partial segment; don't hold it back
+            // Binary connections open with BinaryProtocol.MAGIC; anything else is text
+            in.mark(1);
+            if (in.read() == BinaryProtocol.MAGIC) {
+                serveBinary(in, out);
+            } else {
+                in.reset();
+                serveText(new LineReader(in), out);
+            }
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Handling error: " + e.getMessage());
+        }
+    }
+
+    private void serveText(LineReader in, OutputStream out) throws IOException {
+        // Tagged requests still running on the executor; the connection is
+        // closed only once they have answered
+        Phaser tagged = new Phaser(1);
+        // A connection may carry many requests (the Coordinator pools them);
+        // serve lines until the peer closes it or this node is killed.
+        ResponseBuffer response = new ResponseBuffer(); // Reused for every response on this connection
+        CommandParser parser = PARSERS.get(); // Parses each line in place
+        try {
+            while (in.next()) {
+                if (!isAlive)
+                    break; // Simulate failure by dropping the connection
+                byte[] buffer = in.buffer();
+                if (isTagged(buffer, in.start(), in.end())) {
+                    byte[] line = Arrays.copyOfRange(buffer, in.start(), in.end()); // The buffer is reused
+                    tagged.register();
+                    executor.submit(() -> {
+                        try {
+                            writeTagged(line, out);
+                        } finally {
+                            tagged.arriveAndDeregister();
+                        }
+                    });
+                    continue;
+                }
+                synchronized (out) {
+                    if (parser.parse(buffer, in.start(), in.end()) == CommandParser.VERSIONS) {
+                        writeVersions(out);
+                    } else {
+                        handleLine(parser, response.reset()).writeTo(out);
+                    }
+                    if (!in.ready()) {
+                        out.flush(); // Flush once per burst of pipelined requests
+                    }
                 }
             }
+        } finally {
+            tagged.arriveAndAwaitAdvance();
+        }
+        synchronized (out) {
+            out.flush();
+        }
+    }
+
+    // Binary protocol: frames answered in order, flushed once per burst
+    private void serveBinary(InputStream in, OutputStream out) throws IOException {
+        ResponseBuffer response = new ResponseBuffer();
+        byte[] request;
+        while ((request = BinaryProtocol.readFrame(in)) != null) {
+            if (!isAlive)
+                break;
+            BinaryProtocol.writeFrame(out, handleFrame(request, response));
+            if (in.available() == 0)
+                out.flush();
+        }
+        out.flush();
+    }
+
+    // Framed protocol: "#<id>:<command>" is answered "#<id>:<response>". Tagged
+    // requests on a connection run concurrently and their responses go back as
+    // each completes, so the Coordinator can keep many outstanding on one
+    // connection (see MultiplexedNodeClient). Untagged lines keep their order.
+    private static boolean isTagged(byte[] line, int start, int end) {
+        return end > start && line[start] == '#' && indexOf(line, start, end, ':') > start + 1;
+    }
+
+    private static int indexOf(byte[] line, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private void writeTagged(byte[] line, OutputStream out) {
+        int colon = indexOf(line, 0, line.length, ':');
+        CommandParser parser = PARSERS.get();
+        parser.parse(line, colon + 1, line.length);
+        ResponseBuffer response = handleLine(parser, new ResponseBuffer().put(line, 0, colon + 1));
+        try {
+            synchronized (out) {
+                response.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Handling error: " + e.getMessage());
+        }
+    }
+
+    // NIO transport: the same framing, one whole response per request
+    private byte[] handleNioLine(byte[] line) {
+        CommandParser parser = PARSERS.get();
+        ResponseBuffer response = NIO_RESPONSES.get().reset();
+        int start = 0;
+        if (isTagged(line, 0, line.length)) {
+            start = indexOf(line, 0, line.length, ':') + 1;
+            response.put(line, 0, start); // The tag; the response is appended to it
+        }
+        if (parser.parse(line, start, line.length) == CommandParser.VERSIONS && start == 0)
+            return versionsDump();
+        return handleLine(parser, response).toByteArray();
+    }
 
-            // Log received command (for debugging)
-            // System.out.println("[" + nodeId + "] Received: " + inputLine);
+    // Appends the complete response line, newline included, to `response`;
+    // `parser` holds the parsed line
+    private ResponseBuffer handleLine(CommandParser parser, ResponseBuffer response) {
+        simulateDelay();
 
-            String response = processCommand(inputLine);
-            out.println(response);
+        if (Log.isDebugEnabled())
+            Log.debug("[" + nodeId + "] Received: " + parser.text());
+
+        try {
+            return processCommand(parser, response);
+        } catch (NumberFormatException e) {
+            return response.line("ERROR:InvalidNumber"); // A version or expiry that is not a number
+        }
+    }
+
+    // PHASE 9: Artificial delay
+    private void simulateDelay() {
+        if (simulateNetworkDelay) {
+            try {
+                Thread.sleep((long) (Math.random() * randomDelay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
+    // Binary protocol request (see BinaryProtocol): GET, PUT or HEARTBEAT.
+    // Encodes the response frame body into `response`.
+    private ResponseBuffer handleFrame(byte[] request, ResponseBuffer response) {
+        simulateDelay();
+        try {
+            BinaryProtocol.Reader reader = new BinaryProtocol.Reader(request);
+            switch (reader.opcode()) {
+                case BinaryProtocol.GET: {
+                    VersionedValue vv = engine.get(reader.string()); // A tombstone once expired
+                    return vv == null ? BinaryProtocol.start(response, BinaryProtocol.NULL)
+                            : BinaryProtocol.value(response, vv);
+                }
+                case BinaryProtocol.PUT: {
+                    // PUT key value version expiresAt; the value's bytes are stored as sent
+                    String key = reader.string();
+                    byte[] value = reader.bytes();
+                    long version = reader.varint();
+                    if (!store(key, new VersionedValue(value, version, reader.varint())))
+                        return BinaryProtocol.message(response, BinaryProtocol.ERROR, "DiskWriteFailed");
+                    return BinaryProtocol.start(response, BinaryProtocol.ACK);
+                }
+                case BinaryProtocol.HEARTBEAT:
+                    return BinaryProtocol.start(response, BinaryProtocol.ALIVE);
+                default:
+                    return BinaryProtocol.message(response, BinaryProtocol.ERROR, "UnknownCommand");
+            }
+        } catch (IllegalArgumentException e) {
+            return BinaryProtocol.message(response, BinaryProtocol.ERROR, "InvalidFrame");
         } catch (IOException e) {
-            System.err.println("[" + nodeId + "] Handling error: " + e.getMessage());
+            Log.error("[" + nodeId + "] Disk Read Error: " + e.getMessage());
+            return BinaryProtocol.message(response, BinaryProtocol.ERROR, "ReadFailed");
         }
     }
 
     // PHASE 1: Request Handler
-    private String processCommand(String command) {
-        String[] parts = command.split(":");
-        String type = parts[0];
+    private ResponseBuffer processCommand(CommandParser command, ResponseBuffer response) {
+        int parts = command.fields();
 
-        switch (type) {
-            case "PUT":
+        switch (command.command()) {
+            // Batches carry length-prefixed fields (see BatchCodec), not ':'-split ones
+            case CommandParser.MPUT:
+                return handleMultiPut(command.text(), response);
+
+            case CommandParser.MGET:
+                return handleMultiGet(command.text(), response);
+
+            case CommandParser.PUT:
                 // Format: PUT:key:value:version
-                if (parts.length < 4)
-                    return "ERROR:InvalidPUTFormat";
-                String key = parts[1];
-                String value = parts[2];
-                int version = Integer.parseInt(parts[3]);
-                return handlePut(key, value, version);
-
-            case "GET":
+                if (parts < 4)
+                    return response.line("ERROR:InvalidPUTFormat");
+                return handlePut(command.key(1), command.bytes(2), command.number(3), 0, response);
+
+            case CommandParser.PUTTTL:
+                // Format: PUTTTL:key:value:version:expiresAt (epoch ms)
+                if (parts < 5)
+                    return response.line("ERROR:InvalidPUTTTLFormat");
+                return handlePut(command.key(1), command.bytes(2), command.number(3), command.number(4), response);
+
+            case CommandParser.GET:
                 // Format: GET:key
-                if (parts.length < 2)
-                    return "ERROR:InvalidGETFormat";
-                return handleGet(parts[1]);
+                if (parts < 2)
+                    return response.line("ERROR:InvalidGETFormat");
+                return handleGet(command.key(1), response);
 
-            case "HEARTBEAT":
-                return "ALIVE";
+            case CommandParser.HEARTBEAT:
+                return response.put(ALIVE);
 
-            case "SYNC_REQUEST":
+            case CommandParser.SYNC_REQUEST:
                 // Optional: If node asks for sync
-                return "SYNC_ACK";
+                return response.line("SYNC_ACK");
+
+            case CommandParser.SYNC_DATA:
+                // Format: SYNC_DATA:key:value:version[:expiresAt]
+                if (parts < 4)
+                    return response.line("ERROR:InvalidSyncFormat");
+                return handlePut(command.key(1), command.bytes(2), command.number(3),
+                        parts > 4 ? command.number(4) : 0, response);
 
-            case "SYNC_DATA":
-                // Format: SYNC_DATA:key:value:version
-                if (parts.length < 4)
-                    return "ERROR:InvalidSyncFormat";
-                return handlePut(parts[1], parts[2], Integer.parseInt(parts[3]));
+            case CommandParser.STATS:
+                // Format: STATS:name=value name=value ...
+                return response.line("STATS:" + engine.stats());
 
-            case "KILL":
+            case CommandParser.COMPACT:
+                try {
+                    engine.compact();
+                    return response.line("ACK_COMPACT");
+                } catch (IOException e) {
+                    return response.line("ERROR:CompactionFailed");
+                }
+
+            case CommandParser.KILL:
                 kill();
-                return "ACK_KILL";
+                return response.line("ACK_KILL");
 
-            case "REVIVE":
+            case CommandParser.REVIVE:
                 revive();
-                return "ACK_REVIVE";
+                return response.line("ACK_REVIVE");
 
             default:
-                return "ERROR:UnknownCommand";
+                return response.line("ERROR:UnknownCommand");
+        }
+    }
+
+    // VERSIONS: one "key:version" line per stored key (expired ones included,
+    // as their versions are still in use), then "END". The Coordinator reads
+    // it at startup to move its clock past them, and compares the lists to
+    // find the keys a recovered node is behind on. On the blocking transport
+    // it is written to the socket in chunks as the engine is scanned, so even
+    // millions of keys need no large buffer; on NIO see versionsDump().
+    private void writeVersions(OutputStream out) throws IOException {
+        ResponseBuffer chunk = new ResponseBuffer();
+        long start = System.currentTimeMillis();
+        int[] count = new int[1];
+        try {
+            engine.forEach((key, value) -> {
+                chunk.put(key).put(':').put(value.version).put('\n');
+                count[0]++;
+                if (chunk.length() >= 64 * 1024) {
+                    try {
+                        chunk.writeTo(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    chunk.reset();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        chunk.line("END").writeTo(out);
+        Log.info("[" + nodeId + "] Sent versions of " + count[0] + " keys in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // The NIO transport queues whole responses, so there the list is built in
+    // memory first: roughly key length + 20 bytes per key, ~50 MB for 1M
+    // keys, held (twice while it is copied out) until it has been sent. Each
+    // VERSIONS request (Coordinator startup, recovery sync) pays it once.
+    private byte[] versionsDump() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeVersions(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory stream
         }
+        return out.toByteArray();
     }
 
     // PHASE 2: Modified PUT logic
-    private String handlePut(String key, String value, int version) {
-        store.compute(key, (k, existing) -> {
-            if (existing == null || version > existing.version) {
-                System.out.println("[" + nodeId + "] PUT " + key + " v" + version + " (Updated)");
-                // UPGRADE 3: Save to disk
-                saveToDisk(key, value, version);
-                return new VersionedValue(value, version);
-            } else {
-                System.out.println("[" + nodeId + "] PUT " + key + " v" + version + " (Ignored, current: v"
-                        + existing.version + ")");
-                return existing;
+    private ResponseBuffer handlePut(String key, byte[] value, long version, long expiresAt,
+            ResponseBuffer response) {
+        if (!store(key, new VersionedValue(value, version, expiresAt)))
+            return response.line("ERROR:DiskWriteFailed");
+        return response.put(ACK);
+    }
+
+    // Applies the write unless stale; false if it could not be made durable
+    private boolean store(String key, VersionedValue value) {
+        boolean updated;
+        try {
+            // UPGRADE 3: The engine logs the write; ACK only once durable
+            updated = engine.put(key, value);
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Disk Write Error: " + e.getMessage());
+            return false;
+        }
+
+        if (Log.isDebugEnabled())
+            Log.debug("[" + nodeId + "] PUT " + key + " v" + value.version
+                    + (updated ? " (Updated)" : " (Ignored, stale)"));
+        return true;
+    }
+
+    // MPUT:<n>(:<key>:<value>:<version>:<expiresAt>)*, applied and logged as
+    // one WAL group commit; a single ACK covers the whole batch
+    private ResponseBuffer handleMultiPut(String command, ResponseBuffer response) {
+        List<Map.Entry<String, VersionedValue>> entries;
+        try {
+            BatchCodec.Reader reader = new BatchCodec.Reader(command, "MPUT".length());
+            int count = reader.count();
+            entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = reader.field();
+                String value = reader.field();
+                long version = reader.number();
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key,
+                        new VersionedValue(value, version, reader.number())));
+            }
+            if (reader.hasMore())
+                throw new IllegalArgumentException("Trailing data");
+        } catch (IllegalArgumentException e) {
+            return response.line("ERROR:InvalidMPUTFormat");
+        }
+
+        int updated;
+        try {
+            updated = engine.putAll(entries);
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Disk Write Error: " + e.getMessage());
+            return response.line("ERROR:DiskWriteFailed");
+        }
+        if (Log.isDebugEnabled())
+            Log.debug("[" + nodeId + "] MPUT " + entries.size() + " keys (" + updated + " updated, "
+                    + (entries.size() - updated) + " stale)");
+        return response.put(ACK);
+    }
+
+    // MGET:<n>(:<key>)* -> VALUES:<n>(:<value>:<version>:<expiresAt> | :NULL)*
+    private ResponseBuffer handleMultiGet(String command, ResponseBuffer response) {
+        List<String> keys = new ArrayList<>();
+        try {
+            BatchCodec.Reader reader = new BatchCodec.Reader(command, "MGET".length());
+            int count = reader.count();
+            for (int i = 0; i < count; i++) {
+                keys.add(reader.field());
+            }
+            if (reader.hasMore())
+                throw new IllegalArgumentException("Trailing data");
+        } catch (IllegalArgumentException e) {
+            return response.line("ERROR:InvalidMGETFormat");
+        }
+
+        response.put("VALUES:").put(keys.size());
+        try {
+            for (String key : keys) {
+                VersionedValue vv = engine.get(key); // A tombstone once expired
+                if (vv == null) {
+                    response.put(":NULL");
+                } else {
+                    response.put(':').put(vv.length).put(':').put(vv).put(':').put(vv.version)
+                            .put(':').put(vv.expiresAt);
+                }
             }
-        });
-        return "ACK";
+        } catch (IOException e) {
+            Log.error("[" + nodeId + "] Disk Read Error: " + e.getMessage());
+            return response.reset().line("ERROR:ReadFailed");
+        }
+        return response.put('\n');
     }
 
     // PHASE 2: Modified GET logic
-    private String handleGet(String key) {
-        VersionedValue vv = store.get(key);
+    private ResponseBuffer handleGet(String key, ResponseBuffer response) {
+        VersionedValue vv;
+        try {
+            vv = engine.get(key); // A tombstone once expired
+        } catch (IOException e) {
+            // An ERROR, not NULL: the Coordinator counts this replica as failed
+            Log.error("[" + nodeId + "] Disk Read Error: " + e.getMessage());
+            return response.line("ERROR:ReadFailed");
+        }
         if (vv == null) {
-            return "NULL";
+            return response.put(NULL);
         }
-        // Format: VALUE:key:value:version
-        return "VALUE:" + key + ":" + vv.value + ":" + vv.version;
+        return valueResponse(response, key, vv);
+    }
+
+    // Format: VALUE:key:value:version[:expiresAt], encoded straight from the stored bytes
+    static ResponseBuffer valueResponse(ResponseBuffer response, String key, VersionedValue vv) {
+        response.put(VALUE_PREFIX).put(key).put(':').put(vv).put(':').put(vv.version);
+        if (vv.expires())
+            response.put(':').put(vv.expiresAt);
+        return response.put('\n');
     }
 
     public void kill() {
         isAlive = false;
-        System.out.println("[" + nodeId + "] KILLED (Stops accepting requests)");
+        Log.info("[" + nodeId + "] KILLED (Stops accepting requests)");
     }
 
     public void revive() {
         isAlive = true;
-        System.out.println("[" + nodeId + "] REVIVED");
+        Log.info("[" + nodeId + "] REVIVED");
+    }
+
+    // Quick standalone benchmark: heap bytes allocated per GET (store lookup
+    // plus response encoding) on the blocking and the NIO transport, measured
+    // with the per-thread allocation counter
+    public static void main(String[] args) throws IOException {
+        int keys = 10_000;
+        int gets = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        ValueStore store = new MemoryStorageEngine.HeapStore();
+        String[] names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "session:user" + String.format("%07d", i);
+            store.putIfNewer(names[i], new VersionedValue(
+                    "{\"userId\": \"user" + i + "\", \"loginTime\": \"01:35\", \"status\": \"active\"}", 1234));
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        OutputStream socket = new BufferedOutputStream(OutputStream.nullOutputStream());
+        ResponseBuffer response = new ResponseBuffer();
+        long responseBytes = 0;
+        for (String transport : new String[] { "blocking", "nio" }) {
+            for (int round = 0; round < 3; round++) { // Earlier rounds warm up the JIT
+                long allocated = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < gets; i++) {
+                    String key = names[i % keys];
+                    valueResponse(response.reset(), key, store.get(key));
+                    if (transport.equals("nio")) {
+                        responseBytes += response.toByteArray().length;
+                    } else {
+                        response.writeTo(socket);
+                        responseBytes += response.length();
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+                System.out.printf("%-8s round %d: %.1f bytes allocated per GET, %.0f ns per GET%n", transport,
+                        round + 1, (double) allocated / gets, (double) nanos / gets);
+            }
+        }
+        System.out.println("(" + responseBytes + " response bytes encoded)");
     }
 
     // For Main.java to keep process running
@@ -0,0 +1,226 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of long-lived connections from the Coordinator to one storage node.
+ * Each connection carries one request/response at a time; idle connections are
+ * health-checked before reuse and dropped when they have been idle too long.
+ * A pool speaks one protocol on all of its connections: NodeConnectionPool.Text
+ * sends text commands, NodeConnectionPool.Binary binary frames (see
+ * BinaryProtocol), so a request in the wrong protocol does not compile.
+ */
+public abstract class NodeConnectionPool<C extends NodeConnectionPool.PooledConnection> {
+    private static final int MAX_IDLE_CONNECTIONS = 32;
+    private static final long MAX_IDLE_MS = 30_000;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private final String ip;
+    private final int port;
+    private final ConcurrentLinkedDeque<C> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+
+    private NodeConnectionPool(String ip, int port) {
+        this.ip = ip;
+        this.port = port;
+    }
+
+    // Text protocol pool
+    public static final class Text extends NodeConnectionPool<TextConnection> {
+        public Text(String ip, int port) {
+            super(ip, port);
+        }
+
+        // Sends one command and returns its single-line response.
+        public String send(String command) throws IOException {
+            return exchange(conn -> conn.roundTrip(command));
+        }
+
+        @Override
+        TextConnection connect(Socket socket) throws IOException {
+            return new TextConnection(socket);
+        }
+    }
+
+    // Binary protocol pool
+    public static final class Binary extends NodeConnectionPool<BinaryConnection> {
+        public Binary(String ip, int port) {
+            super(ip, port);
+        }
+
+        // Sends the frame body `request` and returns the body of the response frame.
+        public byte[] call(ResponseBuffer request) throws IOException {
+            return exchange(conn -> conn.call(request));
+        }
+
+        @Override
+        BinaryConnection connect(Socket socket) throws IOException {
+            return new BinaryConnection(socket);
+        }
+    }
+
+    // Wraps a freshly connected socket in this pool's protocol
+    abstract C connect(Socket socket) throws IOException;
+
+    <T> T exchange(RoundTrip<C, T> roundTrip) throws IOException {
+        C conn = borrow();
+        if (conn != null) {
+            try {
+                T response = roundTrip.on(conn);
+                release(conn);
+                return response;
+            } catch (IOException e) {
+                // The node may have restarted since this connection was pooled; retry once on a fresh one.
+                conn.close();
+            }
+        }
+
+        conn = open();
+        try {
+            T response = roundTrip.on(conn);
+            release(conn);
+            return response;
+        } catch (IOException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    interface RoundTrip<C, T> {
+        T on(C conn) throws IOException;
+    }
+
+    // Drops every idle connection, e.g. after the node has been detected as failed.
+    public void clear() {
+        C conn;
+        while ((conn = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            conn.close();
+        }
+    }
+
+    private C borrow() {
+        C conn;
+        while ((conn = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (conn.isHealthy()) {
+                return conn;
+            }
+            conn.close();
+        }
+        return null;
+    }
+
+    private void release(C conn) {
+        if (idleCount.incrementAndGet() > MAX_IDLE_CONNECTIONS) {
+            idleCount.decrementAndGet();
+            conn.close();
+            return;
+        }
+        conn.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(conn); // LIFO keeps the hottest connections warm
+    }
+
+    private C open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ip, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            return connect(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    abstract static class PooledConnection {
+        final Socket socket;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        abstract boolean hasUnreadInput() throws IOException;
+
+        // An idle connection must be open and have no unread bytes; anything
+        // pending means the peer closed it or the stream is out of step.
+        boolean isHealthy() {
+            try {
+                return !socket.isClosed() && !socket.isInputShutdown()
+                        && System.currentTimeMillis() - lastUsed < MAX_IDLE_MS
+                        && !hasUnreadInput();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    static final class TextConnection extends PooledConnection {
+        final PrintWriter out;
+        final BufferedReader in;
+
+        TextConnection(Socket socket) throws IOException {
+            super(socket);
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        String roundTrip(String command) throws IOException {
+            out.println(command);
+            if (out.checkError())
+                throw new IOException("Write failed");
+            String response = in.readLine();
+            if (response == null)
+                throw new IOException("Connection closed by node");
+            return response;
+        }
+
+        @Override
+        boolean hasUnreadInput() throws IOException {
+            return in.ready();
+        }
+    }
+
+    static final class BinaryConnection extends PooledConnection {
+        final OutputStream out;
+        final InputStream in;
+
+        BinaryConnection(Socket socket) throws IOException {
+            super(socket);
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.in = new BufferedInputStream(socket.getInputStream());
+            out.write(BinaryProtocol.MAGIC); // Goes out with the first request
+        }
+
+        byte[] call(ResponseBuffer request) throws IOException {
+            BinaryProtocol.writeFrame(out, request);
+            out.flush();
+            byte[] response = BinaryProtocol.readFrame(in);
+            if (response == null)
+                throw new IOException("Connection closed by node");
+            return response;
+        }
+
+        @Override
+        boolean hasUnreadInput() throws IOException {
+            return in.available() > 0;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * ValueStore that keeps keys and values outside the Java heap.
+ *
+ * Entries are packed as [long version][long expiresAt, 0 if never]
+ * [int keyLength][int valueLength][int uncompressedLength, -1 if not
+ * compressed][key][value] into chunks carved from 1 MB direct ByteBuffer slabs. Each slab
+ * belongs to one size class (32 bytes growing by 25% up to 1 MB), memcached
+ * style; larger entries get a dedicated slab. Freed chunks go on a per-class
+ * free list and are reused by the next allocation of that class, and an
+ * overwrite that stays in the same class is written in place.
+ *
+ * The index is split into segments, each an open-addressing (linear probing)
+ * table of primitive arrays: the key hash and the entry's packed address
+ * (slab number << 32 | offset). Per entry the heap holds 12 bytes of index
+ * instead of a String, a VersionedValue and a map node. Removing a key
+ * (expiry, eviction) leaves a tombstone in its index slot, so probe chains (and forEach's
+ * position in the table) stay intact; tombstones are reused by inserts and
+ * dropped when the table is rebuilt.
+ *
+ * Slabs are direct buffers, so -XX:MaxDirectMemorySize bounds the store.
+ * Compressed values are stored compressed; they all share the node's
+ * ValueCodec, which the store takes from the values written to it.
+ */
+public class OffHeapValueStore implements ValueStore {
+    private static final int SLAB_BYTES = 1 << 20;
+    private static final int ENTRY_HEADER_BYTES = 28;
+    private static final long TOMBSTONE = -1L; // Index slot of a removed entry; 0 is never-used
+    private static final int[] SIZE_CLASSES = sizeClasses();
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final SlabAllocator allocator = new SlabAllocator();
+    private volatile ValueCodec codec; // Inflates entries stored compressed
+
+    public OffHeapValueStore() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public VersionedValue get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        Segment segment = segmentFor(hash);
+        segment.lock.readLock().lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            return slot < 0 ? null : readValue(segment.addresses[slot]);
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfNewer(String key, VersionedValue value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int entryBytes = ENTRY_HEADER_BYTES + keyBytes.length + value.storedLength();
+        if (value.isCompressed())
+            codec = value.codec();
+        int hash = hash(keyBytes);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot >= 0) {
+                long old = segment.addresses[slot];
+                if (allocator.slab(old).getLong(offset(old)) >= value.version)
+                    return false;
+                replace(segment, slot, keyBytes, value);
+                return true;
+            }
+
+            long address = allocator.allocate(entryBytes);
+            writeEntry(address, keyBytes, value);
+            segment.insert(hash, address);
+            return true;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        return remove(key, false, 0);
+    }
+
+    @Override
+    public boolean removeIfExpired(String key, long now) {
+        return remove(key, true, now);
+    }
+
+    @Override
+    public boolean tombstoneIfExpired(String key, long now) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot < 0)
+                return false;
+            long address = segment.addresses[slot];
+            ByteBuffer slab = allocator.slab(address);
+            long expiresAt = slab.getLong(offset(address) + 8);
+            if (expiresAt == 0 || expiresAt > now || slab.getInt(offset(address) + 20) == 0)
+                return false;
+            replace(segment, slot, keyBytes, readValue(address).tombstone());
+            return true;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    private boolean remove(String key, boolean onlyIfExpired, long now) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot < 0)
+                return false;
+            long address = segment.addresses[slot];
+            long expiresAt = allocator.slab(address).getLong(offset(address) + 8);
+            if (onlyIfExpired && (expiresAt == 0 || expiresAt > now))
+                return false;
+            allocator.free(address, entryBytes(address));
+            segment.remove(slot);
+            return true;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<VersionedValue> function) {
+        for (Segment segment : segments) {
+            segment.lock.writeLock().lock();
+            try {
+                for (int slot = 0; slot < segment.addresses.length; slot++) {
+                    long address = segment.addresses[slot];
+                    if (address == 0 || address == TOMBSTONE)
+                        continue;
+                    VersionedValue current = readValue(address);
+                    VersionedValue replacement = function.apply(current);
+                    if (replacement != current) {
+                        if (replacement.isCompressed())
+                            codec = replacement.codec();
+                        replace(segment, slot, readKey(address).getBytes(StandardCharsets.UTF_8), replacement);
+                    }
+                }
+            } finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Overwrites the entry in `slot`: in place if it stays in its size class,
+    // otherwise in a new chunk with the old one returned to its free list
+    private void replace(Segment segment, int slot, byte[] keyBytes, VersionedValue value) {
+        long old = segment.addresses[slot];
+        int oldBytes = entryBytes(old);
+        int entryBytes = ENTRY_HEADER_BYTES + keyBytes.length + value.storedLength();
+        if (sizeClass(oldBytes) == sizeClass(entryBytes) && sizeClass(entryBytes) < SIZE_CLASSES.length) {
+            writeEntry(old, keyBytes, value);
+            allocator.adjustLiveBytes(entryBytes - oldBytes);
+        } else {
+            long address = allocator.allocate(entryBytes);
+            writeEntry(address, keyBytes, value);
+            segment.addresses[slot] = address;
+            allocator.free(old, oldBytes);
+        }
+    }
+
+    // Entries are decoded in batches under the segment's read lock, and the
+    // action runs outside it so slow consumers (snapshot I/O) do not block
+    // writers. A segment that is rebuilt meanwhile is rescanned from the
+    // start, so a key may be visited twice but never skipped.
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        List<Map.Entry<String, VersionedValue>> batch = new ArrayList<>();
+        for (Segment segment : segments) {
+            long[] table = null;
+            int slot = 0;
+            while (true) {
+                segment.lock.readLock().lock();
+                try {
+                    if (table != segment.addresses) {
+                        table = segment.addresses;
+                        slot = 0;
+                    }
+                    for (int end = Math.min(slot + 1024, table.length); slot < end; slot++) {
+                        if (table[slot] != 0 && table[slot] != TOMBSTONE)
+                            batch.add(Map.entry(readKey(table[slot]), readValue(table[slot])));
+                    }
+                } finally {
+                    segment.lock.readLock().unlock();
+                }
+                for (Map.Entry<String, VersionedValue> entry : batch) {
+                    action.accept(entry.getKey(), entry.getValue());
+                }
+                batch.clear();
+                if (slot >= table.length)
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    // Direct memory reserved by slabs
+    public long offHeapBytes() {
+        return allocator.reservedBytes();
+    }
+
+    // Bytes of slab memory holding live entries (excluding size-class rounding)
+    public long liveBytes() {
+        return allocator.liveBytes();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 26) & (SEGMENTS - 1)];
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static long address(int slab, int offset) {
+        return ((long) (slab + 1) << 32) | offset; // 0 marks an empty index slot
+    }
+
+    private static int slabNumber(long address) {
+        return (int) (address >>> 32) - 1;
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private int entryBytes(long address) {
+        ByteBuffer slab = allocator.slab(address);
+        int offset = offset(address);
+        return ENTRY_HEADER_BYTES + slab.getInt(offset + 16) + slab.getInt(offset + 20);
+    }
+
+    private void writeEntry(long address, byte[] key, VersionedValue value) {
+        ByteBuffer slab = allocator.slab(address);
+        int offset = offset(address);
+        slab.putLong(offset, value.version);
+        slab.putLong(offset + 8, value.expiresAt);
+        slab.putInt(offset + 16, key.length);
+        slab.putInt(offset + 20, value.storedLength());
+        slab.putInt(offset + 24, value.isCompressed() ? value.length : -1);
+        slab.put(offset + ENTRY_HEADER_BYTES, key);
+        value.copyStoredTo(slab, offset + ENTRY_HEADER_BYTES + key.length);
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+        ByteBuffer slab = allocator.slab(address);
+        int offset = offset(address);
+        if (slab.getInt(offset + 16) != key.length)
+            return false;
+        int start = offset + ENTRY_HEADER_BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (slab.get(start + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private String readKey(long address) {
+        ByteBuffer slab = allocator.slab(address);
+        int offset = offset(address);
+        byte[] key = new byte[slab.getInt(offset + 16)];
+        slab.get(offset + ENTRY_HEADER_BYTES, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private VersionedValue readValue(long address) {
+        ByteBuffer slab = allocator.slab(address);
+        int offset = offset(address);
+        byte[] value = new byte[slab.getInt(offset + 20)];
+        slab.get(offset + ENTRY_HEADER_BYTES + slab.getInt(offset + 16), value);
+        int uncompressedLength = slab.getInt(offset + 24);
+        long expiresAt = slab.getLong(offset + 8);
+        if (uncompressedLength < 0)
+            return new VersionedValue(value, slab.getLong(offset), expiresAt);
+        return new VersionedValue(value, uncompressedLength, slab.getLong(offset), expiresAt, codec);
+    }
+
+    private static int[] sizeClasses() {
+        List<Integer> classes = new ArrayList<>();
+        for (int size = 32; size < SLAB_BYTES; size = (size + size / 4 + 7) & ~7) {
+            classes.add(size);
+        }
+        classes.add(SLAB_BYTES);
+        return classes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Index of the smallest class that fits; SIZE_CLASSES.length for entries
+    // that need a dedicated slab
+    private static int sizeClass(int bytes) {
+        int index = Arrays.binarySearch(SIZE_CLASSES, bytes);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // One open-addressing table; guarded by its lock
+    private final class Segment {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int[] hashes = new int[INITIAL_SEGMENT_CAPACITY];
+        long[] addresses = new long[INITIAL_SEGMENT_CAPACITY];
+        int size;
+        int used; // Live entries plus tombstones: the slots that lengthen probes
+
+        int find(int hash, byte[] key) {
+            int mask = addresses.length - 1;
+            for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                long address = addresses[slot];
+                if (address == 0)
+                    return -1;
+                if (address != TOMBSTONE && hashes[slot] == hash && keyEquals(address, key))
+                    return slot;
+            }
+        }
+
+        // The key must not be present (find() returned -1)
+        void insert(int hash, long address) {
+            if (used + 1 > addresses.length * 3 / 4)
+                rebuild(size + 1 > addresses.length / 2 ? addresses.length * 2 : addresses.length);
+            if (place(hash, address))
+                used++;
+            size++;
+        }
+
+        void remove(int slot) {
+            addresses[slot] = TOMBSTONE;
+            size--;
+        }
+
+        // Returns true if it took a never-used slot rather than a tombstone
+        private boolean place(int hash, long address) {
+            int mask = addresses.length - 1;
+            int slot = hash & mask;
+            while (addresses[slot] != 0 && addresses[slot] != TOMBSTONE) {
+                slot = (slot + 1) & mask;
+            }
+            boolean fresh = addresses[slot] == 0;
+            hashes[slot] = hash;
+            addresses[slot] = address;
+            return fresh;
+        }
+
+        // Re-places the live entries into new arrays, dropping tombstones
+        private void rebuild(int capacity) {
+            int[] oldHashes = hashes;
+            long[] oldAddresses = addresses;
+            hashes = new int[capacity];
+            addresses = new long[capacity];
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != 0 && oldAddresses[i] != TOMBSTONE)
+                    place(oldHashes[i], oldAddresses[i]);
+            }
+            used = size;
+        }
+    }
+
+    // Hands out chunks from per-size-class slabs and recycles freed ones
+    private static final class SlabAllocator {
+        private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+        private int slabCount;
+        private final List<Integer> freeSlabNumbers = new ArrayList<>(); // Released dedicated slabs
+        private final SizeClass[] classes = new SizeClass[SIZE_CLASSES.length];
+        private long reservedBytes;
+        private long liveBytes;
+
+        SlabAllocator() {
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = new SizeClass(SIZE_CLASSES[i]);
+            }
+        }
+
+        ByteBuffer slab(long address) {
+            return slabs[slabNumber(address)];
+        }
+
+        long allocate(int bytes) {
+            adjustLiveBytes(bytes);
+            int index = sizeClass(bytes);
+            if (index == classes.length)
+                return address(newSlab(bytes), 0);
+
+            SizeClass sizeClass = classes[index];
+            synchronized (sizeClass) {
+                if (sizeClass.freeCount > 0)
+                    return sizeClass.free[--sizeClass.freeCount];
+                if (sizeClass.slab < 0 || sizeClass.nextOffset + sizeClass.chunkBytes > SLAB_BYTES) {
+                    sizeClass.slab = newSlab(SLAB_BYTES);
+                    sizeClass.nextOffset = 0;
+                }
+                long address = address(sizeClass.slab, sizeClass.nextOffset);
+                sizeClass.nextOffset += sizeClass.chunkBytes;
+                return address;
+            }
+        }
+
+        void free(long address, int bytes) {
+            adjustLiveBytes(-bytes);
+            int index = sizeClass(bytes);
+            if (index == classes.length) {
+                releaseSlab(slabNumber(address));
+                return;
+            }
+            SizeClass sizeClass = classes[index];
+            synchronized (sizeClass) {
+                if (sizeClass.freeCount == sizeClass.free.length)
+                    sizeClass.free = Arrays.copyOf(sizeClass.free, sizeClass.free.length * 2);
+                sizeClass.free[sizeClass.freeCount++] = address;
+            }
+        }
+
+        synchronized void adjustLiveBytes(long delta) {
+            liveBytes += delta;
+        }
+
+        synchronized long liveBytes() {
+            return liveBytes;
+        }
+
+        synchronized long reservedBytes() {
+            return reservedBytes;
+        }
+
+        private synchronized int newSlab(int bytes) {
+            int number;
+            if (!freeSlabNumbers.isEmpty()) {
+                number = freeSlabNumbers.remove(freeSlabNumbers.size() - 1);
+            } else {
+                number = slabCount++;
+                if (number == slabs.length)
+                    slabs = Arrays.copyOf(slabs, slabs.length * 2);
+            }
+            ByteBuffer[] current = slabs;
+            current[number] = ByteBuffer.allocateDirect(bytes);
+            slabs = current; // Volatile write publishes the new slab to readers
+            reservedBytes += bytes;
+            return number;
+        }
+
+        private synchronized void releaseSlab(int number) {
+            reservedBytes -= slabs[number].capacity();
+            slabs[number] = null; // Freed by the GC once unreachable
+            freeSlabNumbers.add(number);
+        }
+    }
+
+    private static final class SizeClass {
+        final int chunkBytes;
+        long[] free = new long[64];
+        int freeCount;
+        int slab = -1;
+        int nextOffset;
+
+        SizeClass(int chunkBytes) {
+            this.chunkBytes = chunkBytes;
+        }
+    }
+
+    // Quick standalone benchmark: heap footprint and GET latency against the
+    // on-heap map, e.g. java -Xmx4g -XX:MaxDirectMemorySize=4g OffHeapValueStore 5000000
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int gets = 2_000_000;
+        for (String name : new String[] { "heap", "offheap" }) {
+            long baseline = usedHeap();
+            ValueStore store = name.equals("heap") ? new MemoryStorageEngine.HeapStore() : new OffHeapValueStore();
+            long start = System.nanoTime();
+            for (int i = 0; i < keys; i++) {
+                store.putIfNewer(String.format("session:user%08d", i), new VersionedValue(
+                        "{\"userId\": \"user" + i + "\", \"loginTime\": \"01:35\", \"status\": \"active\"}", 1));
+            }
+            long loadMs = (System.nanoTime() - start) / 1_000_000;
+            long heap = usedHeap() - baseline;
+
+            Random random = new Random(42);
+            long[] latencies = new long[gets];
+            for (int round = 0; round < 2; round++) { // First round warms up the JIT
+                for (int i = 0; i < gets; i++) {
+                    String key = String.format("session:user%08d", random.nextInt(keys));
+                    long t = System.nanoTime();
+                    if (store.get(key) == null)
+                        throw new IllegalStateException("Missing " + key);
+                    latencies[i] = System.nanoTime() - t;
+                }
+            }
+            Arrays.sort(latencies);
+            String offHeap = store instanceof OffHeapValueStore
+                    ? String.format(", off-heap %.0f MB", ((OffHeapValueStore) store).offHeapBytes() / 1048576.0)
+                    : "";
+            System.out.printf("%-8s %d keys loaded in %d ms: heap %.0f MB (%.0f B/key)%s; GET p50 %d ns, p99 %d ns,"
+                    + " p99.9 %d ns%n", name, store.size(), loadMs, heap / 1048576.0, (double) heap / keys, offHeap,
+                    latencies[gets / 2], latencies[(int) (gets * 0.99)], latencies[(int) (gets * 0.999)]);
+            store = null;
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Startup options for the Coordinator and Nodes.
+ * Parsed from the "--flag" / "--flag=value" arguments that follow the
+ * positional arguments given to Main.
+ */
+public class Options {
+    // Coordinator: reuse long-lived connections to storage nodes
+    public boolean connectionPool = true;
+    // Coordinator: send node requests tagged with IDs, many outstanding on each
+    // of a few connections per node (see MultiplexedNodeClient)
+    public boolean multiplex = false;
+    public int nodeConnections = 2;
+    // Coordinator: send GETs, PUTs and sync pushes to the nodes in the binary
+    // protocol (see BinaryProtocol)
+    public boolean binary = false;
+    // Coordinator: concurrent GETs of a key share one quorum read
+    public boolean coalesceReads = true;
+    // Coordinator: cache consolidated reads in up to this many bytes; 0 disables the cache
+    public long readCacheBytes = 0;
+    // Coordinator & Node: serve clients with the NIO selector transport
+    public boolean nio = false;
+    public int eventLoops = Runtime.getRuntime().availableProcessors();
+    // Coordinator & Node: run request handling and replica fan-out on virtual threads
+    public boolean virtualThreads = false;
+    // Node: storage engine, "memory" (on-heap map), "offheap" (slab-allocated
+    // direct memory) or "lsm" (LSM tree on disk)
+    public String engine = "memory";
+    public long memtableBytes = 4L * 1024 * 1024; // LSM: flush the memtable to an SSTable past this size
+    // Node: compress values with a dictionary trained from the store (memory/offheap engines)
+    public boolean compress = false;
+    // Node: cache mode, evict cold keys to keep the store under this many bytes
+    // (memory/offheap engines); 0 keeps every key
+    public long maxBytes = 0;
+    // Node: keep an expired key's version (its tombstone) this long, so an
+    // older version still held by another replica cannot outvote the expiry
+    public long tombstoneGraceMs = 60 * 60 * 1000;
+    // Node: when a PUT counts as durable (see WriteAheadLog)
+    public WriteAheadLog.Durability durability = WriteAheadLog.Durability.BATCH;
+    public long fsyncIntervalMs = 100;
+    // Node: compact the log into a snapshot once it grows past this size
+    public long compactThresholdBytes = 64L * 1024 * 1024;
+    // Node: threads used to parse storage files at startup
+    public int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    // Least severe log level printed; per-request logging is DEBUG
+    public Log.Level logLevel = Log.Level.INFO;
+
+    public static Options parse(String[] args, int from) {
+        Options options = new Options();
+        for (int i = from; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            String name = eq == -1 ? arg : arg.substring(0, eq);
+
+            switch (name) {
+                case "--no-pool":
+                    options.connectionPool = false;
+                    break;
+                case "--multiplex":
+                    options.multiplex = true;
+                    break;
+                case "--node-connections":
+                    options.nodeConnections = Integer.parseInt(value(arg));
+                    break;
+                case "--binary":
+                    options.binary = true;
+                    break;
+                case "--no-coalesce":
+                    options.coalesceReads = false;
+                    break;
+                case "--read-cache-bytes":
+                    options.readCacheBytes = Long.parseLong(value(arg));
+                    break;
+                case "--nio":
+                    options.nio = true;
+                    break;
+                case "--virtual-threads":
+                    options.virtualThreads = true;
+                    break;
+                case "--engine":
+                    options.engine = value(arg);
+                    break;
+                case "--compress":
+                    options.compress = true;
+                    break;
+                case "--max-bytes":
+                    options.maxBytes = Long.parseLong(value(arg));
+                    break;
+                case "--tombstone-grace-ms":
+                    options.tombstoneGraceMs = Long.parseLong(value(arg));
+                    break;
+                case "--memtable-bytes":
+                    options.memtableBytes = Long.parseLong(value(arg));
+                    break;
+                case "--durability":
+                    options.durability = WriteAheadLog.Durability.valueOf(value(arg).toUpperCase());
+                    break;
+                case "--fsync-interval-ms":
+                    options.fsyncIntervalMs = Long.parseLong(value(arg));
+                    break;
+                case "--compact-bytes":
+                    options.compactThresholdBytes = Long.parseLong(value(arg));
+                    break;
+                case "--recovery-threads":
+                    options.recoveryThreads = Integer.parseInt(value(arg));
+                    break;
+                case "--event-loops":
+                    options.eventLoops = Integer.parseInt(value(arg));
+                    break;
+                case "--log-level":
+                    options.logLevel = Log.Level.valueOf(value(arg).toUpperCase());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return options;
+    }
+
+    // Executor for client handling and replica fan-out. Virtual threads need a
+    // Java 21+ runtime; the lookup is reflective so the code still builds on 17.
+    public ExecutorService newRequestExecutor() {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.warn("Virtual threads need Java 21+ (running " + System.getProperty("java.version")
+                        + "); using a cached thread pool");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private static String value(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq == -1)
+            throw new IllegalArgumentException("Missing value: " + arg);
+        return arg.substring(eq + 1);
+    }
+
+    public static String usage() {
+        return "Options:\n"
+                + "  --no-pool            open a new connection per coordinator->node request\n"
+                + "  --multiplex          multiplex coordinator->node requests over a few connections per node\n"
+                + "  --node-connections=N connections per node with --multiplex (default 2)\n"
+                + "  --binary             binary protocol for coordinator->node GET, PUT and sync\n"
+                + "  --no-coalesce        run a quorum read per GET, even for concurrent GETs of one key\n"
+                + "  --read-cache-bytes=N coordinator read cache size; 0 (default) disables it\n"
+                + "  --nio                serve clients from a non-blocking selector transport\n"
+                + "  --event-loops=N      number of NIO event-loop threads (default: CPU count)\n"
+                + "  --virtual-threads    handle requests on virtual threads (Java 21+)\n"
+                + "  --engine=NAME        node storage engine: memory (default), offheap or lsm\n"
+                + "  --memtable-bytes=N   LSM memtable size before it is flushed to disk (default 4 MB)\n"
+                + "  --compress           compress values with a dictionary trained from the node's data\n"
+                + "  --max-bytes=N        cache mode: evict cold keys to keep a node's store under N bytes\n"
+                + "  --tombstone-grace-ms=N\n"
+                + "                       keep an expired key's version (a tombstone) for N ms (default 1 hour)\n"
+                + "  --durability=MODE    node write durability: none, batch (fsync per group commit, default)\n"
+                + "                       or periodic (fsync every --fsync-interval-ms, default 100)\n"
+                + "  --compact-bytes=N    snapshot and truncate a node's log past N bytes (default 64 MB)\n"
+                + "  --recovery-threads=N threads for parallel startup recovery (default: CPU count)\n"
+                + "  --log-level=LEVEL    debug (logs every request), info (default), warn or error";
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable byte buffer a response line is encoded into.
+ *
+ * A connection keeps one and resets it per request, so building a response
+ * allocates nothing once the buffer has grown to the largest line: keys are
+ * copied char by char when they are ASCII, values straight from their UTF-8
+ * bytes, and numbers are written as digits without going through a String.
+ * Not thread-safe.
+ */
+public class ResponseBuffer {
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    public ResponseBuffer reset() {
+        length = 0;
+        return this;
+    }
+
+    public ResponseBuffer put(byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, bytes, length, data.length);
+        length += data.length;
+        return this;
+    }
+
+    public ResponseBuffer put(byte[] data, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(data, offset, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    public ResponseBuffer put(char c) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    public ResponseBuffer put(String s) {
+        int n = s.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) { // Not ASCII: encode the rest properly
+                return put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[length++] = (byte) c;
+        }
+        return this;
+    }
+
+    public ResponseBuffer put(VersionedValue value) {
+        ensureCapacity(value.length);
+        value.copyTo(bytes, length);
+        length += value.length;
+        return this;
+    }
+
+    public ResponseBuffer put(long number) {
+        ensureCapacity(20);
+        if (number < 0) {
+            bytes[length++] = '-';
+        } else {
+            number = -number; // Count down in negatives so Long.MIN_VALUE works
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' - number % 10);
+            number /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    // Unsigned LEB128, for the binary protocol (see BinaryProtocol)
+    public ResponseBuffer putVarint(long number) {
+        ensureCapacity(10);
+        while ((number & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((number & 0x7F) | 0x80);
+            number >>>= 7;
+        }
+        bytes[length++] = (byte) number;
+        return this;
+    }
+
+    // Appends `text` and the terminating newline
+    public ResponseBuffer line(String text) {
+        return put(text).put('\n');
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Exactly-sized copy, for transports that queue responses
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    public void copyTo(byte[] dst, int offset) {
+        System.arraycopy(bytes, 0, dst, offset, length);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Immutable sorted table of key/value records used by LsmStorageEngine.
+ *
+ * File layout:
+ *   [data: StorageRecords, sorted by key]
+ *   [index: varint count, then (varint keyLength, key, int64 offset) for every
+ *           INDEX_INTERVAL-th record, then the last key]
+ *   [bloom: int32 hashes, int32 words, int64 words...]
+ *   [footer: int64 indexOffset, int64 bloomOffset, int64 records, int32 MAGIC]
+ *
+ * The sparse index and bloom filter are kept in memory, so a point read costs
+ * at most one positional read of a single index block (and usually none when
+ * the bloom filter rules the table out).
+ */
+public class SSTable {
+    private static final int MAGIC = 0x55AB1E01;
+    private static final int FOOTER_BYTES = 28;
+    private static final int INDEX_INTERVAL = 16;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+
+    final Path file;
+    final int level;
+    final long id;
+    final long records;
+    final long fileBytes;
+    final String firstKey;
+    final String lastKey;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final BloomFilter bloom;
+
+    private SSTable(Path file, int level, long id) throws IOException {
+        this.file = file;
+        this.level = level;
+        this.id = id;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileBytes = channel.size();
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+        readFully(footer, fileBytes - FOOTER_BYTES);
+        footer.flip();
+        long indexOffset = footer.getLong();
+        long bloomOffset = footer.getLong();
+        this.records = footer.getLong();
+        if (footer.getInt() != MAGIC)
+            throw new IOException("Not an SSTable: " + file);
+        this.dataEnd = indexOffset;
+
+        ByteBuffer meta = ByteBuffer.allocate((int) (fileBytes - FOOTER_BYTES - indexOffset));
+        readFully(meta, indexOffset);
+        meta.flip();
+        int entries = (int) StorageRecords.readVarint(meta);
+        indexKeys = new String[entries];
+        indexOffsets = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            indexKeys[i] = readString(meta);
+            indexOffsets[i] = meta.getLong();
+        }
+        this.lastKey = entries == 0 ? null : readString(meta);
+        this.firstKey = entries == 0 ? null : indexKeys[0];
+        meta.position((int) (bloomOffset - indexOffset));
+        this.bloom = BloomFilter.read(meta);
+    }
+
+    public static SSTable open(Path file, int level, long id) throws IOException {
+        return new SSTable(file, level, id);
+    }
+
+    // Writes sorted entries to a new table file, fsyncs it and opens it.
+    public static SSTable write(Path file, int level, long id, Iterator<Map.Entry<String, VersionedValue>> sorted,
+            int expectedRecords) throws IOException {
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        BloomFilter bloom = new BloomFilter(Math.max(1, expectedRecords));
+        String lastKey = null;
+        long offset = 0;
+        long count = 0;
+
+        try (FileOutputStream fos = new FileOutputStream(file.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            while (sorted.hasNext()) {
+                Map.Entry<String, VersionedValue> entry = sorted.next();
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add(offset);
+                }
+                byte[] record = StorageRecords.encode(entry.getKey(), entry.getValue());
+                out.write(record);
+                offset += record.length;
+                bloom.add(entry.getKey());
+                lastKey = entry.getKey();
+                count++;
+            }
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            StorageRecords.writeVarint(index, indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                writeString(index, indexKeys.get(i));
+                index.write(ByteBuffer.allocate(8).putLong(indexOffsets.get(i)).array(), 0, 8);
+            }
+            if (lastKey != null)
+                writeString(index, lastKey);
+
+            long indexOffset = offset;
+            long bloomOffset = indexOffset + index.size();
+            out.write(index.toByteArray());
+            bloom.write(out);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        return open(file, level, id);
+    }
+
+    public boolean mayContain(String key) {
+        return lastKey != null && key.compareTo(firstKey) >= 0 && key.compareTo(lastKey) <= 0
+                && bloom.mightContain(key);
+    }
+
+    // Point lookup: one read of the index block that could hold the key. Every
+    // record scanned is checksummed; a corrupt one throws IOException.
+    public VersionedValue get(String key) throws IOException {
+        if (!mayContain(key))
+            return null;
+        int block = floorIndex(key);
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readFully(buffer, start);
+        buffer.flip();
+
+        VersionedValue[] found = new VersionedValue[1];
+        CRC32C crc = new CRC32C();
+        while (buffer.hasRemaining() && found[0] == null) {
+            long offset = start + buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            int next = buffer.position() + length;
+            if (length <= 0 || next > buffer.capacity())
+                throw new IOException("Corrupt record in " + file + " at offset " + offset);
+            buffer.limit(next);
+            crc.reset();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksum)
+                throw new IOException("Checksum mismatch in " + file + " at offset " + offset);
+            StorageRecords.decode(buffer, (k, v) -> {
+                if (k.equals(key))
+                    found[0] = v;
+            });
+            buffer.limit(buffer.capacity()).position(next);
+        }
+        return found[0];
+    }
+
+    public boolean overlaps(String first, String last) {
+        return lastKey != null && first != null && firstKey.compareTo(last) <= 0 && lastKey.compareTo(first) >= 0;
+    }
+
+    // Sequential scan in key order (compaction and full iteration); a corrupt
+    // record throws IllegalStateException, like a read error. The scan holds
+    // its own file handle until it has run to the end or is closed.
+    public Scan iterator() throws IOException {
+        return new Scan();
+    }
+
+    public final class Scan implements Iterator<Map.Entry<String, VersionedValue>>, Closeable {
+        private final DataInputStream in;
+        private long position = 0;
+        private final CRC32C crc = new CRC32C();
+        private Map.Entry<String, VersionedValue> next;
+
+        private Scan() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 1 << 16));
+            try {
+                next = advance();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private Map.Entry<String, VersionedValue> advance() {
+            try {
+                if (position >= dataEnd) {
+                    in.close();
+                    return null;
+                }
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || position + StorageRecords.HEADER_BYTES + length > dataEnd)
+                    throw new IllegalStateException("Corrupt record in " + file + " at offset " + position);
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum)
+                    throw new IllegalStateException("Checksum mismatch in " + file + " at offset " + position);
+                position += StorageRecords.HEADER_BYTES + length;
+                List<Map.Entry<String, VersionedValue>> holder = new ArrayList<>(1);
+                StorageRecords.decode(ByteBuffer.wrap(payload), (k, v) -> holder.add(Map.entry(k, v)));
+                return holder.get(0);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read " + file + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, VersionedValue> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Map.Entry<String, VersionedValue> current = next;
+            next = advance();
+            return current;
+        }
+
+        // For callers that stop early or fail mid-merge; safe to call twice
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    private int floorIndex(String key) {
+        int lo = 0;
+        int hi = indexKeys.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (indexKeys[mid].compareTo(key) <= 0)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0)
+                throw new IOException("Unexpected end of " + file);
+            position += n;
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        StorageRecords.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[(int) StorageRecords.readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Standard bloom filter with double hashing; ~1% false positives at 10 bits per key
+    static class BloomFilter {
+        private static final int HASHES = 7;
+        private final long[] words;
+
+        BloomFilter(int expectedKeys) {
+            this(new long[Math.max(1, (expectedKeys * BLOOM_BITS_PER_KEY + 63) / 64)]);
+        }
+
+        private BloomFilter(long[] words) {
+            this.words = words;
+        }
+
+        void add(String key) {
+            long bits = words.length * 64L;
+            int h1 = key.hashCode();
+            int h2 = mix(h1);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(String key) {
+            long bits = words.length * 64L;
+            int h1 = key.hashCode();
+            int h2 = mix(h1);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(HASHES);
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        static BloomFilter read(ByteBuffer buffer) {
+            buffer.getInt(); // hashes
+            long[] words = new long[buffer.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = buffer.getLong();
+            }
+            return new BloomFilter(words);
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+            return h | 1;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage behind Node.handlePut and Node.handleGet.
+ *
+ * Implementations resolve conflicting writes by version (last-writer-wins)
+ * and must be safe for concurrent use by the node's request threads.
+ */
+public interface StorageEngine {
+    // Null if the key is absent; an expired value comes back as its tombstone
+    // (VersionedValue.tombstone) for callers to compare versions against.
+    // Throws if the stored data cannot be read, so a damaged replica is
+    // never read as empty.
+    VersionedValue get(String key) throws IOException;
+
+    // Stores the value if it is newer than the stored version. Returns true if
+    // it was applied, once it is durable; false if it was stale and ignored.
+    boolean put(String key, VersionedValue value) throws IOException;
+
+    // Stores each entry that is newer than the stored version, logging them as
+    // one group commit. Returns the number applied, once all are durable.
+    int putAll(List<Map.Entry<String, VersionedValue>> entries) throws IOException;
+
+    // Applies a record without logging it (initial seeding from DataLoader)
+    void load(String key, VersionedValue value);
+
+    // Visits the latest version of every key, expired values included (they
+    // still shadow older versions); callers serving data skip isExpired()
+    void forEach(BiConsumer<String, VersionedValue> action);
+
+    boolean isEmpty();
+
+    // One-line summary for the node's STATS reply
+    String stats();
+
+    // Reclaims space taken by overwritten versions (the COMPACT command)
+    void compact() throws IOException;
+
+    void close();
+}
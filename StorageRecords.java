@@ -0,0 +1,400 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary record format shared by the node's write-ahead log and snapshots.
+ *
+ * Record:  [int32 payloadLength][int32 crc32c(payload)][payload]
+ * Payload: [byte flags][varint version]([varint expiresAt] if flags & EXPIRES)
+ *          [varint keyLength][key UTF-8]
+ *          ([varint uncompressedLength] if flags & COMPRESSED)
+ *          [varint valueLength][value UTF-8, or compressed by the node's ValueCodec]
+ *
+ * Lengths make keys and values with ':' (or any byte) safe, and the checksum
+ * lets recovery stop cleanly at the first torn or corrupt record instead of
+ * failing the whole load.
+ *
+ * replayParallel() memory-maps a file and splits it into segments on record
+ * boundaries. A cheap sequential pass reads only the headers to find those
+ * boundaries. Segments are then verified and decoded on several threads.
+ * Records reach the consumer in no particular order, so the consumer must be
+ * thread-safe and resolve conflicts by version (last-writer-wins).
+ */
+public class StorageRecords {
+    static final int HEADER_BYTES = 8;
+    static final int COMPRESSED = 0x01; // Flag: value compressed with the node's dictionary
+    static final int EXPIRES = 0x02; // Flag: value has a TTL (absolute expiry in epoch ms)
+    static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30; // One mapping per segment must stay < 2 GB
+
+    // Result of replaying a file: how many records and how many leading bytes were valid
+    public static class ReplayResult {
+        public final long records;
+        public final long validBytes;
+        public final long fileBytes;
+
+        ReplayResult(long records, long validBytes, long fileBytes) {
+            this.records = records;
+            this.validBytes = validBytes;
+            this.fileBytes = fileBytes;
+        }
+
+        public boolean isTruncated() {
+            return validBytes < fileBytes;
+        }
+    }
+
+    public static byte[] encode(String key, VersionedValue value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int stored = value.storedLength();
+        int bodyLength = 1 + varintLength(value.version) + (value.expires() ? varintLength(value.expiresAt) : 0)
+                + varintLength(keyBytes.length) + keyBytes.length
+                + (value.isCompressed() ? varintLength(value.length) : 0) + varintLength(stored) + stored;
+
+        // Encoded in place: one array per record, the value copied straight from its bytes
+        byte[] record = new byte[HEADER_BYTES + bodyLength];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.position(HEADER_BYTES);
+        buffer.put((byte) ((value.isCompressed() ? COMPRESSED : 0) | (value.expires() ? EXPIRES : 0)));
+        putVarint(buffer, value.version);
+        if (value.expires())
+            putVarint(buffer, value.expiresAt);
+        putVarint(buffer, keyBytes.length);
+        buffer.put(keyBytes);
+        if (value.isCompressed())
+            putVarint(buffer, value.length);
+        putVarint(buffer, stored);
+        value.copyStoredTo(record, buffer.position());
+
+        CRC32C crc = new CRC32C();
+        crc.update(record, HEADER_BYTES, bodyLength);
+        buffer.putInt(0, bodyLength);
+        buffer.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    // Replays every intact record in order; stops at the first torn or corrupt one.
+    public static ReplayResult replay(Path file, BiConsumer<String, VersionedValue> consumer) throws IOException {
+        return replay(file, null, consumer);
+    }
+
+    // `codec` decodes compressed values; null if the file has none
+    public static ReplayResult replay(Path file, ValueCodec codec, BiConsumer<String, VersionedValue> consumer)
+            throws IOException {
+        long fileBytes;
+        try {
+            fileBytes = Files.size(file);
+        } catch (NoSuchFileException e) {
+            return new ReplayResult(0, 0, 0);
+        }
+
+        long records = 0;
+        long validBytes = 0;
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break; // Clean end of file (or a torn header)
+                }
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_PAYLOAD_BYTES)
+                    break;
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum)
+                    break;
+
+                decode(ByteBuffer.wrap(payload), codec, consumer);
+                records++;
+                validBytes += HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // Torn final record: everything before it is intact
+        }
+        return new ReplayResult(records, validBytes, fileBytes);
+    }
+
+    // Replays a file on `threads` threads (see class comment). Like replay(), it
+    // only applies the intact prefix of the file: records behind the first torn
+    // or corrupt one are never handed to the consumer.
+    public static ReplayResult replayParallel(Path file, BiConsumer<String, VersionedValue> consumer, int threads)
+            throws IOException {
+        return replayParallel(file, null, consumer, threads);
+    }
+
+    public static ReplayResult replayParallel(Path file, ValueCodec codec, BiConsumer<String, VersionedValue> consumer,
+            int threads) throws IOException {
+        if (!Files.exists(file))
+            return new ReplayResult(0, 0, 0);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileBytes = channel.size();
+            List<Long> boundaries = new ArrayList<>();
+            long scanEnd = findSegmentBoundaries(channel, fileBytes, threads, boundaries);
+            boundaries.add(scanEnd);
+
+            int segments = boundaries.size() - 1;
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, segments)));
+            try {
+                // Phase 1: verify checksums; the first bad record anywhere cuts off everything after it
+                List<Future<Long>> firstCorrupt = new ArrayList<>();
+                for (int i = 0; i < segments; i++) {
+                    long start = boundaries.get(i);
+                    long end = boundaries.get(i + 1);
+                    firstCorrupt.add(pool.submit(() -> verifySegment(channel, start, end)));
+                }
+                long validEnd = scanEnd;
+                for (Future<Long> result : firstCorrupt) {
+                    long corruptAt = result.get();
+                    if (corruptAt >= 0) {
+                        validEnd = Math.min(validEnd, corruptAt);
+                    }
+                }
+
+                // Phase 2: decode and apply the intact prefix
+                List<Future<Long>> decoded = new ArrayList<>();
+                for (int i = 0; i < segments && boundaries.get(i) < validEnd; i++) {
+                    long start = boundaries.get(i);
+                    long end = Math.min(boundaries.get(i + 1), validEnd);
+                    decoded.add(pool.submit(() -> decodeSegment(channel, start, end, codec, consumer)));
+                }
+                long records = 0;
+                for (Future<Long> result : decoded) {
+                    records += result.get();
+                }
+                return new ReplayResult(records, validEnd, fileBytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during recovery", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Recovery failed: " + e.getCause(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Walks record headers only (skipping payloads) and records a segment start
+    // roughly every fileBytes/threads bytes. Returns where the walk stopped: the
+    // end of the file, or the first header that is torn or implausible.
+    private static long findSegmentBoundaries(FileChannel channel, long fileBytes, int threads,
+            List<Long> boundaries) throws IOException {
+        long targetSegmentBytes = Math.max(1, Math.min(MAX_SEGMENT_BYTES - MAX_PAYLOAD_BYTES,
+                fileBytes / Math.max(1, threads)));
+        long segmentStart = 0;
+        boundaries.add(0L);
+
+        MappedByteBuffer window = null;
+        long windowStart = 0;
+        long offset = 0;
+        while (offset + HEADER_BYTES <= fileBytes) {
+            if (window == null || offset + HEADER_BYTES > windowStart + window.limit()) {
+                windowStart = offset;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(MAX_SEGMENT_BYTES, fileBytes - windowStart));
+            }
+            int length = window.getInt((int) (offset - windowStart));
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES || offset + HEADER_BYTES + length > fileBytes)
+                break;
+            if (offset - segmentStart >= targetSegmentBytes) {
+                boundaries.add(offset);
+                segmentStart = offset;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    // Returns the offset of the first record in [start, end) whose checksum fails, or -1.
+    private static long verifySegment(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        CRC32C crc = new CRC32C();
+        int pos = 0;
+        while (pos < segment.capacity()) {
+            int length = segment.getInt(pos);
+            int checksum = segment.getInt(pos + 4);
+            segment.limit(pos + HEADER_BYTES + length).position(pos + HEADER_BYTES);
+            crc.reset();
+            crc.update(segment);
+            segment.limit(segment.capacity());
+            if ((int) crc.getValue() != checksum)
+                return start + pos;
+            pos += HEADER_BYTES + length;
+        }
+        return -1;
+    }
+
+    private static long decodeSegment(FileChannel channel, long start, long end, ValueCodec codec,
+            BiConsumer<String, VersionedValue> consumer) throws IOException {
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        long records = 0;
+        int pos = 0;
+        while (pos < segment.capacity()) {
+            int length = segment.getInt(pos);
+            segment.limit(pos + HEADER_BYTES + length).position(pos + HEADER_BYTES);
+            decode(segment, codec, consumer);
+            segment.limit(segment.capacity());
+            pos += HEADER_BYTES + length;
+            records++;
+        }
+        return records;
+    }
+
+    static void decode(ByteBuffer payload, BiConsumer<String, VersionedValue> consumer) {
+        decode(payload, null, consumer);
+    }
+
+    static void decode(ByteBuffer payload, ValueCodec codec, BiConsumer<String, VersionedValue> consumer) {
+        int flags = payload.get();
+        long version = readVarint(payload);
+        long expiresAt = (flags & EXPIRES) != 0 ? readVarint(payload) : 0;
+        String key = readString(payload);
+        boolean compressed = (flags & COMPRESSED) != 0;
+        int length = compressed ? (int) readVarint(payload) : -1;
+        byte[] value = new byte[(int) readVarint(payload)];
+        payload.get(value);
+        if (!compressed) {
+            consumer.accept(key, new VersionedValue(value, version, expiresAt));
+        } else if (codec == null) {
+            throw new IllegalStateException("Compressed record for " + key + " but no value dictionary is loaded");
+        } else {
+            consumer.accept(key, new VersionedValue(value, length, version, expiresAt, codec));
+        }
+    }
+
+    // Writes a complete snapshot file and fsyncs it before returning. Expired
+    // values are written as their tombstones, and left out once expired for
+    // longer than `tombstoneGraceMs`: the snapshot replaces every earlier
+    // record of them.
+    public static int writeSnapshot(Path file, ValueStore entries, long tombstoneGraceMs) throws IOException {
+        int[] count = new int[1];
+        long now = System.currentTimeMillis();
+        try (FileOutputStream fos = new FileOutputStream(file.toFile());
+                BufferedOutputStream out = new BufferedOutputStream(fos, 1 << 20)) {
+            entries.forEach((key, vv) -> {
+                if (vv.isExpired(now - tombstoneGraceMs))
+                    return;
+                try {
+                    out.write(encode(key, vv.isExpired(now) ? vv.tombstone() : vv));
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+            fos.getFD().sync();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = (int) readVarint(buffer);
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[length]; // Mapped (direct) buffer
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static long readVarint(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    // Quick standalone benchmark: recovery throughput in MB/s
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path file = Files.createTempFile("records", ".log");
+        try {
+            try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+                for (int i = 0; i < records; i++) {
+                    String key = String.format("session:user%07d", i);
+                    out.write(encode(key, new VersionedValue(
+                            "{\"userId\": \"user" + i + "\", \"loginTime\": \"01:35\", \"status\": \"active\"}", 1)));
+                }
+            }
+
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            for (int run = 0; run < 3; run++) {
+                for (int t : new int[] { 1, threads }) {
+                    ConcurrentHashMap<String, VersionedValue> store = new ConcurrentHashMap<>();
+                    long start = System.nanoTime();
+                    ReplayResult result = t == 1 ? replay(file, store::put) : replayParallel(file, store::put, t);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%s: recovered %d records (%.1f MB) in %.2f s: %.1f MB/s%n",
+                            t == 1 ? "Sequential" : "Parallel x" + t, result.records, result.validBytes / 1e6,
+                            seconds, result.validBytes / 1e6 / seconds);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -1,12 +1,36 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestClient {
+    private static final int BENCH_KEYS = 1000;
+
     public static void main(String[] args) {
         if (args.length < 3) {
             System.out.println("Usage: java TestClient <ip> <port> <command>");
+            System.out.println("       java TestClient <ip> <port> bench <operations> <threads>");
+            System.out.println("       java TestClient <ip> <port> stream <commandFile>");
+            System.out.println("       java TestClient <ip> <port> load <clients> <rounds>");
+            System.out.println("       java TestClient <ip> <port> zipf <operations> <threads> [keys]");
+            System.out.println("       java TestClient <ip> <port> batch <keys> [batchSize]");
+            System.out.println("       java TestClient <ip> <port> binary GET <key>");
+            System.out.println("       java TestClient <ip> <port> binary PUT <key> <value> [ttlSeconds]");
             return;
         }
 
@@ -14,6 +38,54 @@ public class TestClient {
         int port = Integer.parseInt(args[1]);
         String command = args[2];
 
+        if (command.equals("bench")) {
+            int operations = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+            runBenchmark(ip, port, operations, threads);
+            return;
+        }
+
+        if (command.equals("stream")) {
+            if (args.length < 4) {
+                System.out.println("Usage: java TestClient <ip> <port> stream <commandFile>");
+                return;
+            }
+            streamCommands(ip, port, args[3]);
+            return;
+        }
+
+        if (command.equals("zipf")) {
+            int operations = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+            int keys = args.length > 5 ? Integer.parseInt(args[5]) : BENCH_KEYS;
+            runZipfBenchmark(ip, port, operations, threads, keys);
+            return;
+        }
+
+        if (command.equals("batch")) {
+            int keys = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+            int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+            runBatchBenchmark(ip, port, keys, batchSize);
+            return;
+        }
+
+        if (command.equals("binary")) {
+            if (args.length < 5 || (args[3].equals("PUT") && args.length < 6)) {
+                System.out.println("Usage: java TestClient <ip> <port> binary GET <key>");
+                System.out.println("       java TestClient <ip> <port> binary PUT <key> <value> [ttlSeconds]");
+                return;
+            }
+            sendBinary(ip, port, args);
+            return;
+        }
+
+        if (command.equals("load")) {
+            int clients = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+            int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+            runConcurrentClients(ip, port, clients, rounds);
+            return;
+        }
+
         // Reconstruct command if it had spaces (e.g. PUT:key:val)
         // Actually arguments are space separated by shell, but our protocol uses
         // colons.
@@ -25,11 +97,424 @@ public class TestClient {
 
             System.out.println("Sending: " + command);
             out.println(command);
+            socket.shutdownOutput(); // End the session after this command
+
+            // Some responses (STATS) span several lines
             String response = in.readLine();
             System.out.println("Response: " + response);
+            String line;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    // One request in the binary protocol (see BinaryProtocol); keys and values
+    // may contain ':', unlike in the text commands
+    private static void sendBinary(String ip, int port, String[] args) {
+        ResponseBuffer request = new ResponseBuffer();
+        if (args[3].equals("GET")) {
+            BinaryProtocol.field(BinaryProtocol.start(request, BinaryProtocol.GET), args[4]);
+        } else {
+            long ttl = args.length > 6 ? Long.parseLong(args[6]) : 0;
+            BinaryProtocol.field(BinaryProtocol.field(BinaryProtocol.start(request, BinaryProtocol.PUT), args[4]),
+                    args[5]).putVarint(ttl);
+        }
+
+        try (Socket socket = new Socket(ip, port)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(BinaryProtocol.MAGIC);
+            BinaryProtocol.writeFrame(out, request);
+            out.flush();
+            System.out.println("Sending (binary, " + (request.length() + 2) + " bytes): " + args[3] + " " + args[4]);
+
+            byte[] response = BinaryProtocol.readFrame(new BufferedInputStream(socket.getInputStream()));
+            if (response == null) {
+                System.out.println("Response: <connection closed>");
+                return;
+            }
+            BinaryProtocol.Reader reader = new BinaryProtocol.Reader(response);
+            switch (reader.opcode()) {
+                case BinaryProtocol.VALUE:
+                    String value = reader.string();
+                    long version = reader.varint();
+                    long expiresAt = reader.varint();
+                    System.out.println("Response: VALUE " + value + " (v" + version
+                            + (expiresAt != 0 ? ", expires at " + expiresAt : "") + ")");
+                    break;
+                case BinaryProtocol.NULL:
+                    System.out.println("Response: NULL");
+                    break;
+                case BinaryProtocol.ACK:
+                    System.out.println("Response: ACK");
+                    break;
+                case BinaryProtocol.FAILURE:
+                    System.out.println("Response: FAILURE " + reader.string());
+                    break;
+                case BinaryProtocol.ERROR:
+                    System.out.println("Response: ERROR " + reader.string());
+                    break;
+                default:
+                    System.out.println("Response: unknown opcode");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Load generator: alternating PUT/GET requests from several threads, one
+    // request per connection. Reports coordinator throughput in ops/sec.
+    private static void runBenchmark(String ip, int port, int operations, int threads) {
+        // Seed the key space first so reads never race the first write of a key
+        for (int i = 0; i < BENCH_KEYS; i++) {
+            try {
+                sendOnce(ip, port, "PUT:bench" + i + ":seed");
+            } catch (IOException e) {
+                System.out.println("Seeding failed: " + e.getMessage());
+                return;
+            }
+        }
+
+        System.out.println("Benchmark: " + operations + " operations on " + threads + " threads...");
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+        Thread[] workers = new Thread[threads];
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < operations) {
+                    String key = "bench" + ((i / 2) % BENCH_KEYS);
+                    String command = (i % 2 == 0) ? "PUT:" + key + ":value" + i : "GET:" + key;
+                    try {
+                        String response = sendOnce(ip, port, command);
+                        if (response == null || response.startsWith("ERROR") || response.startsWith("FAILURE"))
+                            errors.incrementAndGet();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        System.out.printf("Completed %d operations in %.2f s: %.0f ops/sec (%d errors)%n",
+                operations, elapsedNanos / 1e9, operations / (elapsedNanos / 1e9), errors.get());
+    }
+
+    // Skewed read load: GETs whose keys follow a Zipf(0.99) distribution, as
+    // for popular sessions, from `threads` sessions that each wait for every
+    // reply. Reports throughput and how many quorum reads the Coordinator ran
+    // (compare with a Coordinator started with --no-coalesce).
+    private static void runZipfBenchmark(String ip, int port, int operations, int threads, int keys) {
+        for (int i = 0; i < keys; i++) {
+            try {
+                sendOnce(ip, port, "PUT:zipf" + i + ":seed");
+            } catch (IOException e) {
+                System.out.println("Seeding failed: " + e.getMessage());
+                return;
+            }
+        }
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.99);
+            cumulative[i] = sum;
+        }
+        double total = sum;
+
+        System.out.println("Zipf benchmark: " + operations + " GETs over " + keys + " keys on " + threads
+                + " sessions...");
+        Map<String, Long> before = readStats(ip, port);
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try (Socket socket = new Socket(ip, port);
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                    while (next.getAndIncrement() < operations) {
+                        int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                        out.println("GET:zipf" + (index < 0 ? -index - 1 : index));
+                        String response = in.readLine();
+                        if (response == null || !response.startsWith("VALUE:"))
+                            errors.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Map<String, Long> after = readStats(ip, port);
+
+        long quorumReads = after.getOrDefault("Quorum Reads", 0L) - before.getOrDefault("Quorum Reads", 0L);
+        long coalesced = after.getOrDefault("Coalesced Reads", 0L) - before.getOrDefault("Coalesced Reads", 0L);
+        System.out.printf("Completed %d GETs in %.2f s: %.0f ops/sec (%d errors)%n", operations, elapsedNanos / 1e9,
+                operations / (elapsedNanos / 1e9), errors.get());
+        System.out.printf("Quorum reads: %d (%.2f per GET), coalesced GETs: %d%n", quorumReads,
+                (double) quorumReads / operations, coalesced);
+    }
+
+    // Writes and reads `keys` session keys one command per key, then again as
+    // MPUT / MGET batches of `batchSize`, on one session that waits for every
+    // reply. Checks that MGET returns what MPUT wrote; reports keys/sec. The
+    // first round warms up the JIT (client and servers) and is not reported.
+    private static void runBatchBenchmark(String ip, int port, int keys, int batchSize) {
+        try (Socket socket = new Socket(ip, port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setTcpNoDelay(true);
+            System.out.println("Batch benchmark: " + keys + " keys, batches of " + batchSize + "...");
+            for (int round = 0; round < 2; round++) {
+                double[] rates = runBatchRound(out, in, keys, batchSize);
+                if (round == 0)
+                    continue;
+                System.out.printf("PUT  %.0f keys/sec, MPUT %.0f keys/sec (%.0fx)%n", rates[0], rates[2],
+                        rates[2] / rates[0]);
+                System.out.printf("GET  %.0f keys/sec, MGET %.0f keys/sec (%.0fx)%n", rates[1], rates[3],
+                        rates[3] / rates[1]);
+                System.out.println("Errors: " + (int) rates[4]);
+            }
+        } catch (IOException e) {
+            System.out.println("Batch Error: " + e.getMessage());
+        }
+    }
+
+    // Returns keys/sec of PUT, GET, MPUT, MGET, then the error count
+    private static double[] runBatchRound(PrintWriter out, BufferedReader in, int keys, int batchSize)
+            throws IOException {
+        int errors = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            out.println("PUT:" + batchKey(i) + ":" + batchValue(i, "single"));
+            if (!"SUCCESS:WriteQuorumMet".equals(in.readLine()))
+                errors++;
+        }
+        double singlePuts = keys / ((System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            out.println("GET:" + batchKey(i));
+            String response = in.readLine();
+            if (response == null || !response.startsWith("VALUE:"))
+                errors++;
+        }
+        double singleGets = keys / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int from = 0; from < keys; from += batchSize) {
+            int to = Math.min(from + batchSize, keys);
+            StringBuilder batch = new StringBuilder("MPUT:").append(to - from);
+            for (int i = from; i < to; i++) {
+                BatchCodec.appendField(BatchCodec.appendField(batch, batchKey(i)), batchValue(i, "batch"));
+            }
+            out.println(batch);
+            String response = in.readLine();
+            if (response == null || !response.startsWith("MPUT:" + (to - from) + "/"))
+                errors += to - from;
+        }
+        double batchPuts = keys / ((System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int from = 0; from < keys; from += batchSize) {
+            int to = Math.min(from + batchSize, keys);
+            StringBuilder batch = new StringBuilder("MGET:").append(to - from);
+            for (int i = from; i < to; i++) {
+                BatchCodec.appendField(batch, batchKey(i));
+            }
+            out.println(batch);
+            String response = in.readLine();
+            try {
+                BatchCodec.Reader reader = new BatchCodec.Reader(response, "VALUES".length());
+                if (reader.count() != to - from)
+                    throw new IllegalArgumentException("Wrong entry count");
+                for (int i = from; i < to; i++) {
+                    if (reader.marker("NULL") || reader.marker("FAILURE")
+                            || !reader.field().equals(batchValue(i, "batch"))) {
+                        errors++;
+                        continue;
+                    }
+                    reader.number(); // Version
+                }
+            } catch (RuntimeException e) { // Also a null response
+                errors += to - from;
+            }
+        }
+        double batchGets = keys / ((System.nanoTime() - start) / 1e9);
+        return new double[] { singlePuts, singleGets, batchPuts, batchGets, errors };
+    }
+
+    // No ':' in keys or values, so the single-key commands can carry them too
+    private static String batchKey(int i) {
+        return String.format("batch%06d", i);
+    }
+
+    private static String batchValue(int i, String phase) {
+        return "{userId=user" + i + ", loginTime=01.35, status=active, phase=" + phase + "}";
+    }
+
+    // The Coordinator's numeric STATS lines, by name
+    private static Map<String, Long> readStats(String ip, int port) {
+        Map<String, Long> stats = new HashMap<>();
+        try (Socket socket = new Socket(ip, port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("STATS");
+            socket.shutdownOutput();
+            String line;
+            while ((line = in.readLine()) != null) {
+                int colon = line.indexOf(": ");
+                if (colon < 0)
+                    continue;
+                try {
+                    stats.put(line.substring(0, colon), Long.parseLong(line.substring(colon + 2).trim()));
+                } catch (NumberFormatException e) {
+                    // Not a counter (per-node lines)
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("STATS failed: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    // Pipelined session: sends every line of the file over one connection
+    // without waiting for replies, while reading responses as they arrive.
+    private static void streamCommands(String ip, int port, String commandFile) {
+        List<String> commands;
+        try {
+            commands = Files.readAllLines(Paths.get(commandFile));
+        } catch (IOException e) {
+            System.out.println("Cannot read " + commandFile + ": " + e.getMessage());
+            return;
+        }
+
+        try (Socket socket = new Socket(ip, port);
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            long start = System.nanoTime();
+            Thread writer = new Thread(() -> {
+                for (String command : commands) {
+                    if (!command.isEmpty())
+                        out.println(command);
+                }
+                out.flush();
+                try {
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    System.out.println("Stream Error: " + e.getMessage());
+                }
+            });
+            writer.start();
+
+            int responses = 0;
+            int failures = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                responses++;
+                if (line.startsWith("ERROR") || line.startsWith("FAILURE"))
+                    failures++;
+            }
+            writer.join();
+            long elapsedNanos = System.nanoTime() - start;
+
+            System.out.printf("Streamed %d commands, %d response lines (%d failures) in %.2f s: %.0f ops/sec%n",
+                    commands.size(), responses, failures, elapsedNanos / 1e9,
+                    commands.size() / (elapsedNanos / 1e9));
+        } catch (IOException e) {
+            System.out.println("Stream Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Holds `clients` sessions open at once and, in each round, sends one GET on
+    // every session before reading the replies, so the server sees that many
+    // concurrent connections. Prints the server's thread count and heap (STATS).
+    private static void runConcurrentClients(String ip, int port, int clients, int rounds) {
+        List<Socket> sockets = new ArrayList<>();
+        List<PrintWriter> writers = new ArrayList<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            sendOnce(ip, port, "PUT:loadkey:value");
+            System.out.println("Opening " + clients + " concurrent sessions...");
+            for (int i = 0; i < clients; i++) {
+                Socket socket = new Socket(ip, port);
+                sockets.add(socket);
+                writers.add(new PrintWriter(socket.getOutputStream(), true));
+                readers.add(new BufferedReader(new InputStreamReader(socket.getInputStream())));
+            }
+
+            long start = System.nanoTime();
+            int failures = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (PrintWriter out : writers) {
+                    out.println("GET:loadkey");
+                }
+                for (BufferedReader in : readers) {
+                    String response = in.readLine();
+                    if (response == null || !response.startsWith("VALUE:"))
+                        failures++;
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            System.out.printf("%d requests over %d sessions in %.2f s: %.0f ops/sec (%d failures)%n",
+                    clients * rounds, clients, elapsedNanos / 1e9, clients * rounds / (elapsedNanos / 1e9), failures);
+
+            // Sample the server while every session is still open
+            try (Socket socket = new Socket(ip, port);
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                out.println("STATS");
+                socket.shutdownOutput();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("Live Threads") || line.startsWith("Heap Used"))
+                        System.out.println("Server " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Load Error after " + sockets.size() + " sessions: " + e.getMessage());
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String sendOnce(String ip, int port, String command) throws IOException {
+        try (Socket socket = new Socket(ip, port);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(command);
+            return in.readLine();
+        }
+    }
 }
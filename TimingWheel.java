@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel (Varghese & Lauck) for key expiry.
+ *
+ * Level 0 has one slot per tick; each higher level has slots that span a
+ * whole revolution of the level below, so LEVELS levels of WHEEL_SIZE slots
+ * cover WHEEL_SIZE^LEVELS ticks with O(1) scheduling. When a lower wheel
+ * completes a revolution, the next slot of the wheel above is cascaded: its
+ * entries are re-inserted and land in finer slots. Deadlines beyond the top
+ * wheel are parked in its farthest slot and re-inserted when it comes round.
+ *
+ * A single daemon thread advances the wheel every tick and hands due keys to
+ * the callback, outside the wheel's lock. Keys fire at most one tick late.
+ * An entry is only a hint: the callback must check that the key really has
+ * expired, because it may have been rewritten since it was scheduled.
+ */
+public class TimingWheel<K> {
+    private static final int WHEEL_SIZE = 64;
+    private static final int LEVELS = 4; // 64^4 ticks: about 19 days at 100 ms
+
+    private final long tickMs;
+    private final Consumer<K> onExpire;
+    private final List<List<Entry<K>>> slots = new ArrayList<>(); // [level * WHEEL_SIZE + slot]
+    private long currentTick; // Guarded by `this`: every tick up to here has fired
+    private int scheduled;
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    public TimingWheel(String name, long tickMs, Consumer<K> onExpire) {
+        this.tickMs = tickMs;
+        this.onExpire = onExpire;
+        for (int i = 0; i < LEVELS * WHEEL_SIZE; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMs;
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    // Fires `key` at (or up to one tick after) the absolute time `expiresAt`.
+    // The deadline tick rounds up: a tick fires once its start time has
+    // passed, so rounding down could fire before the key has expired, and the
+    // callback would find nothing to remove.
+    public synchronized void schedule(K key, long expiresAt) {
+        insert(new Entry<>(key, Math.max((expiresAt + tickMs - 1) / tickMs, currentTick + 1)));
+        scheduled++;
+    }
+
+    public synchronized int size() {
+        return scheduled;
+    }
+
+    public void close() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    // Caller holds the lock. deadline > currentTick.
+    private void insert(Entry<K> entry) {
+        long delta = entry.deadline - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            long span = span(level);
+            if (delta < span * WHEEL_SIZE || level == LEVELS - 1) {
+                long slotTick = delta >= span * WHEEL_SIZE
+                        ? currentTick + span * (WHEEL_SIZE - 1) // Beyond the top wheel: park in its farthest slot
+                        : entry.deadline;
+                slots.get(level * WHEEL_SIZE + (int) ((slotTick / span) % WHEEL_SIZE)).add(entry);
+                return;
+            }
+        }
+    }
+
+    // Advances to `tick`, returning the keys that became due on the way
+    private synchronized List<K> advanceTo(long tick) {
+        List<K> due = new ArrayList<>();
+        while (currentTick < tick) {
+            currentTick++;
+            // Every level whose lower wheel just completed a revolution cascades
+            // one slot, top down so entries can fall through several levels
+            int top = 0;
+            for (long span = WHEEL_SIZE; top + 1 < LEVELS && currentTick % span == 0; span *= WHEEL_SIZE) {
+                top++;
+            }
+            for (int level = top; level >= 1; level--) {
+                long span = span(level);
+                List<Entry<K>> slot = slots.get(level * WHEEL_SIZE + (int) ((currentTick / span) % WHEEL_SIZE));
+                List<Entry<K>> cascading = new ArrayList<>(slot);
+                slot.clear();
+                for (Entry<K> entry : cascading) {
+                    if (entry.deadline <= currentTick) {
+                        due.add(entry.key);
+                        scheduled--;
+                    } else {
+                        insert(entry);
+                    }
+                }
+            }
+
+            List<Entry<K>> slot = slots.get((int) (currentTick % WHEEL_SIZE));
+            for (Entry<K> entry : slot) {
+                due.add(entry.key);
+            }
+            scheduled -= slot.size();
+            slot.clear();
+        }
+        return due;
+    }
+
+    // Ticks covered by one slot of `level`
+    private static long span(int level) {
+        long span = 1;
+        for (int i = 0; i < level; i++) {
+            span *= WHEEL_SIZE;
+        }
+        return span;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(tickMs);
+            } catch (InterruptedException e) {
+                continue; // close() wakes us up to exit
+            }
+            for (K key : advanceTo(System.currentTimeMillis() / tickMs)) {
+                try {
+                    onExpire.accept(key);
+                } catch (RuntimeException e) {
+                    Log.error("[TimingWheel] Expiry callback failed for " + key + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Quick standalone test: keys whose TTLs are not multiples of the tick must
+    // all be removed by a callback that, like MemoryStorageEngine's, only
+    // removes keys that have really expired, e.g. java TimingWheel 1000
+    public static void main(String[] args) throws InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long tickMs = 100;
+        ConcurrentHashMap<String, Long> store = new ConcurrentHashMap<>(); // Key -> expiresAt
+        TimingWheel<String> wheel = new TimingWheel<>("test-wheel", tickMs,
+                key -> store.computeIfPresent(key, (k, expiresAt) -> expiresAt <= System.currentTimeMillis() ? null
+                        : expiresAt));
+        long now = System.currentTimeMillis();
+        long latest = 0;
+        for (int i = 0; i < keys; i++) {
+            long expiresAt = now + 150 + (i * 37) % 700 + (i % 7 == 0 ? 0 : 1); // Mostly off the tick boundaries
+            store.put("key" + i, expiresAt);
+            wheel.schedule("key" + i, expiresAt);
+            latest = Math.max(latest, expiresAt);
+        }
+        Thread.sleep(latest - now + 3 * tickMs); // Every key is due by now, with a tick of slack
+        wheel.close();
+        if (!store.isEmpty())
+            throw new AssertionError(store.size() + " of " + keys + " expired keys were never removed, e.g. "
+                    + store.keySet().iterator().next());
+        System.out.println("All " + keys + " keys expired and removed");
+    }
+
+    private static class Entry<K> {
+        final K key;
+        final long deadline; // Absolute tick
+
+        Entry(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+}
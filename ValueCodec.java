@@ -0,0 +1,274 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-node value compression with a shared, trained dictionary.
+ *
+ * Session values are small JSON documents that repeat the same field names
+ * and status strings, which a general-purpose compressor cannot exploit in a
+ * 70-byte input. Values are therefore compressed with raw Deflate primed with
+ * a preset dictionary built from a sample of the store: the repeated
+ * fragments become back-references into the dictionary, and only the
+ * per-record parts (ids, times) are coded as literals.
+ *
+ * train() keeps the byte runs that recur in many samples, most valuable last
+ * so their back-references are the shortest. The dictionary is saved next to
+ * the node's storage files because every compressed record depends on it.
+ *
+ * Deflaters and inflaters hold native memory and are expensive to create, so
+ * they are pooled and reused.
+ */
+public class ValueCodec {
+    private static final int MAX_DICTIONARY_BYTES = 1024;
+    private static final int MAX_TRAINING_SAMPLES = 4096;
+    private static final int SEGMENT_GRAM = 6; // Substring length used to find recurring runs
+
+    private final byte[] dictionary;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    public ValueCodec(byte[] dictionary) {
+        this.dictionary = dictionary.clone();
+    }
+
+    public int dictionaryBytes() {
+        return dictionary.length;
+    }
+
+    // Returns the value compressed with this codec, or the value itself when it
+    // is already compressed or compression would not make it smaller
+    public VersionedValue compress(VersionedValue value) {
+        if (value.isCompressed())
+            return value;
+        byte[] raw = new byte[value.length];
+        value.copyTo(raw, 0);
+        byte[] compressed = compress(raw);
+        return compressed == null ? value : new VersionedValue(compressed, raw.length, value.version,
+                value.expiresAt, this);
+    }
+
+    private byte[] compress(byte[] raw) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.reset();
+            if (dictionary.length > 0)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[raw.length];
+            int n = deflater.deflate(out);
+            if (!deflater.finished() || n >= raw.length)
+                return null; // Incompressible; store as is
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflaters.offer(deflater);
+        }
+    }
+
+    // Inflates `compressed` into dst[offset, offset + rawLength)
+    public void decompress(byte[] compressed, byte[] dst, int offset, int rawLength) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater(true);
+        try {
+            inflater.reset();
+            if (dictionary.length > 0)
+                inflater.setDictionary(dictionary);
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < rawLength) {
+                int inflated = inflater.inflate(dst, offset + n, rawLength - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                n += inflated;
+            }
+            if (n != rawLength)
+                throw new IllegalStateException("Compressed value inflated to " + n + " of " + rawLength + " bytes");
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed value: " + e.getMessage(), e);
+        } finally {
+            inflaters.offer(inflater);
+        }
+    }
+
+    // Builds a dictionary from the runs of bytes that recur across samples
+    public static ValueCodec train(List<byte[]> samples) {
+        List<byte[]> sample = samples.size() <= MAX_TRAINING_SAMPLES ? samples
+                : samples.subList(0, MAX_TRAINING_SAMPLES);
+
+        // 1. In how many samples does each n-gram occur?
+        Map<String, Integer> gramFrequency = new HashMap<>();
+        for (byte[] value : sample) {
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i + SEGMENT_GRAM <= value.length; i++) {
+                String gram = new String(value, i, SEGMENT_GRAM, StandardCharsets.ISO_8859_1);
+                if (seen.add(gram))
+                    gramFrequency.merge(gram, 1, Integer::sum);
+            }
+        }
+
+        // 2. Cut each sample into maximal runs of common n-grams and count the runs
+        int common = Math.max(2, sample.size() / 20);
+        Map<String, Integer> segmentFrequency = new HashMap<>();
+        for (byte[] value : sample) {
+            int runStart = -1;
+            for (int i = 0; i + SEGMENT_GRAM <= value.length + 1; i++) {
+                boolean isCommon = i + SEGMENT_GRAM <= value.length && gramFrequency.getOrDefault(
+                        new String(value, i, SEGMENT_GRAM, StandardCharsets.ISO_8859_1), 0) >= common;
+                if (isCommon && runStart < 0) {
+                    runStart = i;
+                } else if (!isCommon && runStart >= 0) {
+                    String segment = new String(value, runStart, i - 1 - runStart + SEGMENT_GRAM,
+                            StandardCharsets.ISO_8859_1);
+                    segmentFrequency.merge(segment, 1, Integer::sum);
+                    runStart = -1;
+                }
+            }
+        }
+
+        // 3. Keep the runs that save the most (frequency x length) within the budget
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(segmentFrequency.entrySet());
+        ranked.sort(Comparator.comparingLong(
+                (Map.Entry<String, Integer> e) -> (long) e.getValue() * e.getKey().length()).reversed());
+        List<String> chosen = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            String segment = entry.getKey();
+            if (entry.getValue() < 2 || total + segment.length() > MAX_DICTIONARY_BYTES)
+                continue;
+            if (chosen.stream().anyMatch(c -> c.contains(segment)))
+                continue;
+            chosen.add(segment);
+            total += segment.length();
+        }
+
+        // Most valuable last: closest to the data, so the cheapest distances
+        StringBuilder dictionary = new StringBuilder(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.append(chosen.get(i));
+        }
+        return new ValueCodec(dictionary.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    // Returns null when no dictionary has been saved yet
+    public static ValueCodec load(Path file) throws IOException {
+        try {
+            return new ValueCodec(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Written and fsynced before any record compressed with it
+    public void save(Path file) throws IOException {
+        Path tmp = Paths.get(file + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            out.write(dictionary);
+            out.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Quick standalone benchmark: size reduction and GET cost on session values,
+    // e.g. java ValueCodec user_sessions.txt 1000000
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : "user_sessions.txt";
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        // Real sessions, plus synthetic ones in the same shape up to `keys`
+        List<String> names = new ArrayList<>();
+        List<VersionedValue> sessions = new ArrayList<>();
+        DataLoader.loadSessions(file, (k, v) -> {
+            synchronized (names) {
+                names.add(k);
+                sessions.add(v);
+            }
+        });
+        for (int i = names.size(); i < keys; i++) {
+            names.add(String.format("session:user%07d", i));
+        }
+
+        Random random = new Random(7);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < Math.min(names.size(), MAX_TRAINING_SAMPLES); i++) {
+            samples.add(session(sessions, random.nextInt(names.size())).value().getBytes(StandardCharsets.UTF_8));
+        }
+        ValueCodec codec = train(samples);
+        System.out.println("Dictionary (" + codec.dictionaryBytes() + " bytes): "
+                + new String(codec.dictionary, StandardCharsets.ISO_8859_1));
+
+        for (boolean compressed : new boolean[] { false, true }) {
+            long baseline = usedHeap();
+            ValueStore store = new MemoryStorageEngine.HeapStore();
+            long valueBytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < names.size(); i++) {
+                VersionedValue value = session(sessions, i);
+                if (compressed)
+                    value = codec.compress(value);
+                valueBytes += value.storedLength();
+                store.putIfNewer(names.get(i), value);
+            }
+            long putNanos = System.nanoTime() - start;
+            long heap = usedHeap() - baseline;
+            Path snapshot = Files.createTempFile("snapshot", ".dat");
+            StorageRecords.writeSnapshot(snapshot, store, 0);
+            long diskBytes = Files.size(snapshot);
+            Files.delete(snapshot);
+
+            ResponseBuffer response = new ResponseBuffer();
+            long[] latencies = new long[names.size()];
+            for (int round = 0; round < 2; round++) { // First round warms up the JIT
+                for (int i = 0; i < latencies.length; i++) {
+                    String key = names.get(random.nextInt(names.size()));
+                    long t = System.nanoTime();
+                    Node.valueResponse(response.reset(), key, store.get(key));
+                    latencies[i] = System.nanoTime() - t;
+                }
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%-10s values %.1f MB (%.1f B/value), heap %.0f MB, snapshot %.1f MB, PUT %.0f ns,"
+                    + " GET p50 %d ns p99 %d ns%n", compressed ? "compressed" : "raw", valueBytes / 1048576.0,
+                    (double) valueBytes / names.size(), heap / 1048576.0, diskBytes / 1048576.0,
+                    (double) putNanos / names.size(), latencies[latencies.length / 2],
+                    latencies[(int) (latencies.length * 0.99)]);
+        }
+    }
+
+    private static VersionedValue session(List<VersionedValue> sessions, int i) {
+        if (i < sessions.size())
+            return sessions.get(i);
+        String[] statuses = { "active", "inactive", "expired" };
+        return new VersionedValue(String.format("{\"userId\": \"user%07d\", \"loginTime\": \"%02d:%02d\","
+                + " \"status\": \"%s\"}", i, i * 7 % 24, i * 13 % 60, statuses[i % 3]), 1);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
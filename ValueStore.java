@@ -0,0 +1,38 @@
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory key index behind MemoryStorageEngine.
+ *
+ * MemoryStorageEngine owns durability (log, snapshots, recovery); a ValueStore
+ * only holds the latest version of every key, either on the Java heap
+ * (MemoryStorageEngine.HeapStore) or off-heap (OffHeapValueStore).
+ */
+public interface ValueStore {
+    VersionedValue get(String key);
+
+    // Stores the value unless the stored version is the same or newer.
+    // Returns true if it was applied.
+    boolean putIfNewer(String key, VersionedValue value);
+
+    // Removes the key (cache eviction); returns true if it was present
+    boolean remove(String key);
+
+    // Removes the key if its stored value has expired by `now`; a value
+    // rewritten in the meantime (without a TTL, or a later one) is kept
+    boolean removeIfExpired(String key, long now);
+
+    // Replaces the stored value with its tombstone (see VersionedValue.tombstone)
+    // if it has expired by `now`, freeing the value bytes; returns true if it did
+    boolean tombstoneIfExpired(String key, long now);
+
+    // Visits the latest version of every key; weakly consistent with
+    // concurrent writes
+    void forEach(BiConsumer<String, VersionedValue> action);
+
+    // Replaces every value with function(value), keeping its key; used to
+    // re-encode existing values (e.g. compress them once a codec is trained)
+    void replaceAll(UnaryOperator<VersionedValue> function);
+
+    int size();
+}
@@ -1,14 +1,120 @@
-public class VersionedValue {
-    public String value;
-    public int version;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
-    public VersionedValue(String value, int version) {
-        this.value = value;
+/**
+ * Immutable value with its version.
+ *
+ * The value is kept as UTF-8 bytes, the form it is stored, logged and sent
+ * in, so the hot paths copy bytes instead of encoding Strings. With value
+ * compression enabled the bytes are the ValueCodec-compressed form instead,
+ * and are only inflated when the value is read (copyTo/writeTo/value()).
+ * The array never escapes.
+ */
+public final class VersionedValue {
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final byte[] value;
+    private final ValueCodec codec; // Null when `value` is plain UTF-8
+    public final long version; // Hybrid logical clock timestamp, see HybridLogicalClock
+    public final int length; // Value length in UTF-8 bytes (uncompressed)
+    public final long expiresAt; // Epoch ms; 0 = never expires
+
+    public VersionedValue(String value, long version) {
+        this(value, version, 0);
+    }
+
+    public VersionedValue(String value, long version, long expiresAt) {
+        this(value.getBytes(StandardCharsets.UTF_8), version, expiresAt);
+    }
+
+    // Takes ownership of `utf8`; the caller must not modify it afterwards
+    public VersionedValue(byte[] utf8, long version) {
+        this(utf8, version, 0);
+    }
+
+    public VersionedValue(byte[] utf8, long version, long expiresAt) {
+        this(utf8, utf8.length, version, expiresAt, null);
+    }
+
+    // A value compressed by `codec` that inflates to `length` bytes
+    public VersionedValue(byte[] stored, int length, long version, long expiresAt, ValueCodec codec) {
+        this.value = stored;
+        this.length = length;
         this.version = version;
+        this.expiresAt = expiresAt;
+        this.codec = codec;
+    }
+
+    public boolean expires() {
+        return expiresAt != 0;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    // The value reduced to its version and expiry. An expired key is kept as
+    // its tombstone for --tombstone-grace-ms instead of being dropped, and
+    // reads return it, so a replica still holding an older version of the key
+    // loses to it under last-writer-wins rather than bringing the key back.
+    public VersionedValue tombstone() {
+        return value.length == 0 ? this : new VersionedValue(NO_BYTES, 0, version, expiresAt, null);
+    }
+
+    public String value() {
+        if (codec == null)
+            return new String(value, StandardCharsets.UTF_8);
+        byte[] utf8 = new byte[length];
+        copyTo(utf8, 0);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    public boolean isCompressed() {
+        return codec != null;
+    }
+
+    public ValueCodec codec() {
+        return codec;
+    }
+
+    // Size of the stored form: what the value costs in memory and on disk
+    public int storedLength() {
+        return value.length;
+    }
+
+    // Copies the UTF-8 value, inflating it if compressed
+    public void copyTo(byte[] dst, int offset) {
+        if (codec == null) {
+            System.arraycopy(value, 0, dst, offset, length);
+        } else {
+            codec.decompress(value, dst, offset, length);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (codec == null) {
+            out.write(value, 0, length);
+        } else {
+            byte[] utf8 = new byte[length];
+            copyTo(utf8, 0);
+            out.write(utf8);
+        }
+    }
+
+    // Copies the stored form as is (compressed or not)
+    public void copyStoredTo(byte[] dst, int offset) {
+        System.arraycopy(value, 0, dst, offset, value.length);
+    }
+
+    public void copyStoredTo(ByteBuffer dst, int index) {
+        dst.put(index, value, 0, value.length);
     }
 
     @Override
     public String toString() {
-        return "VersionedValue{value='" + value + "', version=" + version + "}";
+        return "VersionedValue{value='" + value() + "', version=" + version
+                + (expires() ? ", expiresAt=" + expiresAt : "") + "}";
     }
 }
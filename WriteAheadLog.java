@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only write-ahead log with group commit.
+ *
+ * Writers hand records to a single log thread and block until their record has
+ * reached the configured durability level. The log thread drains every record
+ * queued so far into one write on the open FileChannel, so concurrent writers
+ * share a single write() and (in BATCH mode) a single force().
+ *
+ * Durability modes:
+ * - NONE:     acknowledged once written to the channel (OS page cache).
+ * - BATCH:    acknowledged after the batch containing it has been fsynced.
+ * - PERIODIC: acknowledged once written; the log fsyncs every N ms, so at most
+ *             the last N ms of acknowledged writes can be lost on power failure.
+ *
+ * rotate() moves the current file aside and continues on a fresh one, which is
+ * how the Node truncates the log behind a snapshot.
+ *
+ * A batch that fails to write (e.g. disk full) is truncated away again, so no
+ * torn record sits in front of later, acknowledged ones: replay stops at the
+ * first bad record and would lose them. If even that fails (or a failed
+ * rotate() cannot be undone) the log is marked failed and rejects every
+ * later append.
+ */
+public class WriteAheadLog {
+    public enum Durability {
+        NONE, BATCH, PERIODIC
+    }
+
+    private static final int MAX_BATCH_RECORDS = 4096;
+
+    private final Path file;
+    private final Durability durability;
+    private final long fsyncIntervalMs;
+    private FileChannel channel; // Guarded by `this`; replaced by rotate()
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread logThread;
+    private volatile boolean running = true;
+    // Queued by close() to wake the log thread. Interrupting it instead could
+    // land inside a write or force(), which closes the (interruptible) channel.
+    private final PendingWrite wakeUp = new PendingWrite(new byte[0]);
+    private long lastSync = System.currentTimeMillis();
+    private boolean unsynced = false;
+    private volatile IOException failure; // Set once appends can no longer be trusted to replay
+
+    public WriteAheadLog(Path file, Durability durability, long fsyncIntervalMs) throws IOException {
+        this.file = file;
+        this.durability = durability;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.channel = open(file);
+        this.logThread = new Thread(this::run, "wal-" + file.getFileName());
+        this.logThread.setDaemon(true);
+        this.logThread.start();
+    }
+
+    // Appends one encoded record (see StorageRecords); returns once durable.
+    public void append(byte[] record) throws IOException {
+        appendAll(Collections.singletonList(record));
+    }
+
+    // Appends records as part of one group commit; returns once all are durable.
+    public void appendAll(List<byte[]> records) throws IOException {
+        if (!running)
+            throw new IOException("Log closed: " + file);
+        if (failure != null)
+            throw new IOException("Log failed: " + failure.getMessage(), failure);
+        int total = 0;
+        for (byte[] record : records) {
+            total += record.length;
+        }
+        byte[] data = new byte[total];
+        int offset = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, data, offset, record.length);
+            offset += record.length;
+        }
+        PendingWrite write = new PendingWrite(data);
+        queue.add(write);
+        // close() may have drained the queue between the check above and the
+        // add; a write still queued then would never complete
+        if (!running && queue.remove(write))
+            throw new IOException("Log closed: " + file);
+        try {
+            write.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for log write", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Log write failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    // Syncs the current file, renames it to `rotatedTo` and continues logging
+    // to a new, empty file. Writes queued meanwhile go to the new file. The
+    // old channel is closed only once the new one is open, so a failed
+    // rotation leaves the log appending to the original file.
+    public synchronized void rotate(Path rotatedTo) throws IOException {
+        channel.force(false);
+        Files.move(file, rotatedTo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel next;
+        try {
+            next = open(file);
+        } catch (IOException e) {
+            try {
+                Files.move(rotatedTo, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException undo) {
+                // Appends would land in the rotated file, which compaction deletes
+                failure = e;
+                Log.error("[WAL] Cannot move " + rotatedTo + " back to " + file
+                        + "; rejecting further writes: " + undo.getMessage());
+            }
+            throw e;
+        }
+        FileChannel old = channel;
+        channel = next;
+        unsynced = false;
+        try {
+            old.close();
+        } catch (IOException e) {
+            Log.error("[WAL] Close error for " + rotatedTo + ": " + e.getMessage());
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void close() {
+        running = false;
+        queue.add(wakeUp);
+        try {
+            logThread.join();
+            // Queued after the log thread's last drain: fail them, or their writers wait forever
+            PendingWrite write;
+            while ((write = queue.poll()) != null) {
+                write.done.completeExceptionally(new IOException("Log closed: " + file));
+            }
+            synchronized (this) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("[WAL] Close error for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = durability == Durability.PERIODIC
+                        ? queue.poll(fsyncIntervalMs, TimeUnit.MILLISECONDS)
+                        : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_RECORDS - 1);
+                    batch.remove(wakeUp); // close(): the loop drains what is left and exits
+                    if (!batch.isEmpty())
+                        writeBatch(batch);
+                    batch.clear();
+                }
+                if (durability == Durability.PERIODIC)
+                    syncIfDue();
+            } catch (InterruptedException e) {
+                // Nothing interrupts this thread; the loop re-checks `running`
+            }
+        }
+    }
+
+    private synchronized void writeBatch(List<PendingWrite> batch) {
+        long start = -1;
+        try {
+            if (failure != null)
+                throw failure;
+            start = channel.size(); // Appending: the batch starts here
+            int total = 0;
+            for (PendingWrite write : batch) {
+                total += write.data.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            for (PendingWrite write : batch) {
+                buffer.put(write.data);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (durability == Durability.BATCH) {
+                channel.force(false);
+            } else {
+                unsynced = true;
+            }
+            for (PendingWrite write : batch) {
+                write.done.complete(null);
+            }
+        } catch (IOException e) {
+            if (start >= 0 && failure == null) {
+                try {
+                    channel.truncate(start);
+                    channel.force(false);
+                } catch (IOException truncateFailed) {
+                    failure = e;
+                    Log.error("[WAL] " + file + " may hold a torn batch; rejecting further writes: "
+                            + truncateFailed.getMessage());
+                }
+            }
+            for (PendingWrite write : batch) {
+                write.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private synchronized void syncIfDue() {
+        long now = System.currentTimeMillis();
+        if (!unsynced || now - lastSync < fsyncIntervalMs)
+            return;
+        try {
+            channel.force(false);
+            unsynced = false;
+            lastSync = now;
+        } catch (IOException e) {
+            Log.error("[WAL] Periodic fsync failed for " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static class PendingWrite {
+        final byte[] data;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite(byte[] data) {
+            this.data = data;
+        }
+    }
+}